@@ -7,9 +7,11 @@ import java.util.Locale;
 
 import android.app.ActionBar;
 import android.app.Activity;
+import android.app.AlertDialog;
 import android.app.Fragment;
 import android.content.ActivityNotFoundException;
 import android.content.Context;
+import android.content.DialogInterface;
 import android.content.Intent;
 import android.content.SharedPreferences;
 import android.content.res.Configuration;
@@ -56,12 +58,15 @@ import com.oct.tentacles.fragments.slim.*;
 import com.oct.tentacles.fragments.ui.*;
 import com.oct.tentacles.fragments.batterysaver.*;
 import com.oct.tentacles.fragments.installer.*;
+import com.oct.tentacles.util.ErrorJournal;
 
 public class SettingsActivity extends PreferenceActivity implements ButtonBarHandler {
 
     private static final String TAG = "OCT_Settings";
 
     private static String KEY_USE_ENGLISH_LOCALE = "use_english_locale";
+    // how much of the command error journal the viewer shows and shares
+    private static final int ERROR_JOURNAL_VIEW_BYTES = 64 * 1024;
 
     protected HashMap<Integer, Integer> mHeaderIndexMap = new HashMap<Integer, Integer>();
     private List<Header> mHeaders;
@@ -176,6 +181,9 @@ public class SettingsActivity extends PreferenceActivity implements ButtonBarHan
                 p.edit().putBoolean(KEY_USE_ENGLISH_LOCALE, !useEnglishLocale).apply();
                 recreate();
                 return true;
+            case R.id.error_journal:
+                showErrorJournal();
+                return true;
             case android.R.id.home:
                 onBackPressed();
                 return true;
@@ -184,6 +192,53 @@ public class SettingsActivity extends PreferenceActivity implements ButtonBarHan
         }
     }
 
+    private void showErrorJournal() {
+        final ErrorJournal journal = ErrorJournal.getInstance();
+        journal.flushThen(new Runnable() {
+            @Override
+            public void run() {
+                final String log = ErrorJournal.readTail(ERROR_JOURNAL_VIEW_BYTES);
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (isFinishing()) {
+                            return;
+                        }
+                        AlertDialog.Builder builder = new AlertDialog.Builder(SettingsActivity.this)
+                                .setTitle(R.string.menu_error_journal)
+                                .setNegativeButton(R.string.cancel, null);
+                        if (TextUtils.isEmpty(log)) {
+                            builder.setMessage(R.string.error_journal_empty);
+                        } else {
+                            builder.setMessage(log)
+                                    .setPositiveButton(R.string.error_journal_share,
+                                            new DialogInterface.OnClickListener() {
+                                        @Override
+                                        public void onClick(DialogInterface dialog, int which) {
+                                            Intent share = new Intent(Intent.ACTION_SEND);
+                                            share.setType("text/plain");
+                                            share.putExtra(Intent.EXTRA_SUBJECT,
+                                                    ErrorJournal.LOG_NAME);
+                                            share.putExtra(Intent.EXTRA_TEXT, log);
+                                            startActivity(Intent.createChooser(share,
+                                                    getString(R.string.error_journal_share)));
+                                        }
+                                    })
+                                    .setNeutralButton(R.string.error_journal_clear,
+                                            new DialogInterface.OnClickListener() {
+                                        @Override
+                                        public void onClick(DialogInterface dialog, int which) {
+                                            journal.clear();
+                                        }
+                                    });
+                        }
+                        builder.show();
+                    }
+                });
+            }
+        });
+    }
+
     private void setLocale() {
         SharedPreferences p = getPreferences(MODE_PRIVATE);
         boolean useEnglishLocale = p.getBoolean(KEY_USE_ENGLISH_LOCALE, false);
@@ -0,0 +1,313 @@
+/*
+ * Copyright (C) 2013 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.oct.tentacles.fragments;
+
+import android.content.SharedPreferences;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.util.Log;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Display calibration state (gamma or color) kept as plain ints.
+ *
+ * Changes only touch the wanted state; a worker thread then compares it
+ * with what was last written and writes just the controls that differ, in
+ * one pass. Changes that pile up while a pass is pending are applied
+ * together, so a reset or a preset switch is one update no matter how many
+ * values it touched.
+ *
+ * Presets are stored as a single string per name, see {@link #encode}.
+ */
+public class CalibrationEngine {
+    private static final String TAG = "CalibrationEngine";
+
+    private static HandlerThread sWorkerThread;
+    private static Handler sWorker;
+
+    /**
+     * The hardware side, values of a control are space separated.
+     */
+    public interface Backend {
+        int getControlCount();
+        int getChannelCount();
+        String read(int control);
+        void write(int control, String values);
+    }
+
+    private final Backend mBackend;
+    private final String mPrefPrefix;
+    private final int[][] mTarget;
+    // what the hardware is set to as far as we know, guarded by this
+    private final int[][] mApplied;
+    private boolean mScheduled;
+    // passes that took their writes but haven't finished them, guarded by this
+    private int mWriting;
+
+    private final Runnable mApply = new Runnable() {
+        @Override
+        public void run() {
+            apply();
+        }
+    };
+
+    /**
+     * @param prefPrefix prefix of the preference keys presets are stored under
+     */
+    public CalibrationEngine(Backend backend, String prefPrefix) {
+        mBackend = backend;
+        mPrefPrefix = prefPrefix;
+        int controls = backend.getControlCount();
+        int channels = backend.getChannelCount();
+        mTarget = new int[controls][channels];
+        mApplied = new int[controls][channels];
+    }
+
+    private static synchronized Handler getWorker() {
+        if (sWorker == null) {
+            sWorkerThread = new HandlerThread(TAG, Process.THREAD_PRIORITY_BACKGROUND);
+            sWorkerThread.start();
+            sWorker = new Handler(sWorkerThread.getLooper());
+        }
+        return sWorker;
+    }
+
+    public int getControlCount() {
+        return mTarget.length;
+    }
+
+    /**
+     * Reads the current values from the hardware, they become both the
+     * wanted and the applied state.
+     *
+     * While a change is still on its way to the hardware the wanted state
+     * is newer than what the hardware reads back, so it is kept as is.
+     */
+    public synchronized void load() {
+        if (mScheduled || mWriting > 0) {
+            return;
+        }
+        for (int control = 0; control < mTarget.length; control++) {
+            parse(mBackend.read(control), mApplied[control]);
+            System.arraycopy(mApplied[control], 0, mTarget[control], 0,
+                    mTarget[control].length);
+        }
+    }
+
+    public synchronized int get(int control, int channel) {
+        return mTarget[control][channel];
+    }
+
+    /**
+     * @return a copy of the wanted state
+     */
+    public synchronized int[][] getValues() {
+        int[][] values = new int[mTarget.length][];
+        for (int control = 0; control < mTarget.length; control++) {
+            values[control] = mTarget[control].clone();
+        }
+        return values;
+    }
+
+    /**
+     * @return the wanted values of control in the backend's format
+     */
+    public synchronized String format(int control) {
+        return format(mTarget[control], new StringBuilder());
+    }
+
+    public synchronized void set(int control, int channel, int value) {
+        if (mTarget[control][channel] != value) {
+            mTarget[control][channel] = value;
+            schedule();
+        }
+    }
+
+    /**
+     * Replaces the whole wanted state, values may cover fewer controls or
+     * channels than the hardware has.
+     */
+    public synchronized void setAll(int[][] values) {
+        boolean changed = false;
+        for (int control = 0; control < values.length && control < mTarget.length; control++) {
+            int[] row = values[control];
+            for (int channel = 0; channel < row.length
+                    && channel < mTarget[control].length; channel++) {
+                if (mTarget[control][channel] != row[channel]) {
+                    mTarget[control][channel] = row[channel];
+                    changed = true;
+                }
+            }
+        }
+        if (changed) {
+            schedule();
+        }
+    }
+
+    /**
+     * Writes whatever differs on the calling thread instead of the worker,
+     * for callers that need the hardware updated before they go on. Don't
+     * mix with changes from other threads.
+     */
+    public void applyNow() {
+        getWorker().removeCallbacks(mApply);
+        apply();
+    }
+
+    /**
+     * Stores the wanted state as a named preset.
+     */
+    public void savePreset(SharedPreferences prefs, String name) {
+        Set<String> names = new HashSet<String>(getPresetNames(prefs));
+        names.add(name);
+        prefs.edit()
+                .putString(mPrefPrefix + "preset_" + name, encode(getValues()))
+                .putStringSet(mPrefPrefix + "presets", names)
+                .commit();
+    }
+
+    /**
+     * Switches to a stored preset with a single hardware update.
+     *
+     * @return false if there is no such preset
+     */
+    public boolean applyPreset(SharedPreferences prefs, String name) {
+        int[][] values = decode(prefs.getString(mPrefPrefix + "preset_" + name, null));
+        if (values == null) {
+            return false;
+        }
+        setAll(values);
+        return true;
+    }
+
+    public void deletePreset(SharedPreferences prefs, String name) {
+        Set<String> names = new HashSet<String>(getPresetNames(prefs));
+        names.remove(name);
+        prefs.edit()
+                .remove(mPrefPrefix + "preset_" + name)
+                .putStringSet(mPrefPrefix + "presets", names)
+                .commit();
+    }
+
+    public Set<String> getPresetNames(SharedPreferences prefs) {
+        return prefs.getStringSet(mPrefPrefix + "presets", new HashSet<String>());
+    }
+
+    // caller holds the lock
+    private void schedule() {
+        if (!mScheduled) {
+            mScheduled = true;
+            getWorker().post(mApply);
+        }
+    }
+
+    private void apply() {
+        StringBuilder builder = new StringBuilder();
+        int controls = mTarget.length;
+        String[] writes = new String[controls];
+        synchronized (this) {
+            mScheduled = false;
+            mWriting++;
+            for (int control = 0; control < controls; control++) {
+                int[] target = mTarget[control];
+                int[] applied = mApplied[control];
+                boolean dirty = false;
+                for (int channel = 0; channel < target.length; channel++) {
+                    if (target[channel] != applied[channel]) {
+                        applied[channel] = target[channel];
+                        dirty = true;
+                    }
+                }
+                if (dirty) {
+                    writes[control] = format(target, builder);
+                }
+            }
+        }
+        // the hardware calls can be slow, don't hold the lock for them
+        try {
+            for (int control = 0; control < controls; control++) {
+                if (writes[control] != null) {
+                    mBackend.write(control, writes[control]);
+                }
+            }
+        } finally {
+            synchronized (this) {
+                mWriting--;
+            }
+        }
+    }
+
+    private static String format(int[] values, StringBuilder builder) {
+        builder.setLength(0);
+        for (int i = 0; i < values.length; i++) {
+            if (i > 0) {
+                builder.append(' ');
+            }
+            builder.append(values[i]);
+        }
+        return builder.toString();
+    }
+
+    private static void parse(String values, int[] out) {
+        if (values == null) {
+            return;
+        }
+        String[] parts = values.trim().split(" +");
+        for (int i = 0; i < parts.length && i < out.length; i++) {
+            try {
+                out[i] = Integer.parseInt(parts[i]);
+            } catch (NumberFormatException e) {
+                Log.w(TAG, "Ignoring bad calibration value " + parts[i]);
+            }
+        }
+    }
+
+    /**
+     * Packs all controls into one string, "r g b,r g b,...".
+     */
+    public static String encode(int[][] values) {
+        StringBuilder sb = new StringBuilder();
+        StringBuilder control = new StringBuilder();
+        for (int i = 0; i < values.length; i++) {
+            if (i > 0) {
+                sb.append(',');
+            }
+            sb.append(format(values[i], control));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * @return the values packed by {@link #encode} or null for null input
+     */
+    public static int[][] decode(String encoded) {
+        if (encoded == null) {
+            return null;
+        }
+        String[] controls = encoded.split(",");
+        int[][] values = new int[controls.length][];
+        for (int i = 0; i < controls.length; i++) {
+            String[] parts = controls[i].trim().split(" +");
+            values[i] = new int[parts.length];
+            parse(controls[i], values[i]);
+        }
+        return values;
+    }
+}
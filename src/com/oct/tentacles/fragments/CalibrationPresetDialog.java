@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2013 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.oct.tentacles.fragments;
+
+import android.app.AlertDialog;
+import android.content.Context;
+import android.content.DialogInterface;
+import android.content.SharedPreferences;
+import android.view.View;
+import android.widget.AdapterView;
+import android.widget.EditText;
+
+import com.oct.tentacles.R;
+
+import java.util.ArrayList;
+import java.util.Collections;
+
+/**
+ * Picks, saves and deletes the named presets of a {@link CalibrationEngine}.
+ *
+ * Tapping a preset switches to it, long pressing one offers to delete it.
+ * The last entry saves the current values under a new name.
+ */
+final class CalibrationPresetDialog {
+
+    private CalibrationPresetDialog() {
+        // Cannot instantiate this class
+        throw new AssertionError();
+    }
+
+    /**
+     * @param onApplied run after a preset was switched to, to update the
+     *                  controls showing the values
+     */
+    static void show(final Context context, final CalibrationEngine engine,
+            final SharedPreferences prefs, final Runnable onApplied) {
+        final ArrayList<String> names = new ArrayList<String>(engine.getPresetNames(prefs));
+        Collections.sort(names);
+        String[] items = new String[names.size() + 1];
+        names.toArray(items);
+        items[names.size()] = context.getString(R.string.calibration_preset_save);
+
+        final AlertDialog dialog = new AlertDialog.Builder(context)
+                .setTitle(R.string.calibration_presets)
+                .setItems(items, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        if (which == names.size()) {
+                            showSave(context, engine, prefs);
+                        } else if (engine.applyPreset(prefs, names.get(which))) {
+                            onApplied.run();
+                        }
+                    }
+                })
+                .setNegativeButton(android.R.string.cancel, null)
+                .create();
+        dialog.getListView().setOnItemLongClickListener(
+                new AdapterView.OnItemLongClickListener() {
+            @Override
+            public boolean onItemLongClick(AdapterView<?> parent, View view,
+                    int position, long id) {
+                if (position >= names.size()) {
+                    return false;
+                }
+                dialog.dismiss();
+                showDelete(context, engine, prefs, names.get(position));
+                return true;
+            }
+        });
+        dialog.show();
+    }
+
+    private static void showSave(Context context, final CalibrationEngine engine,
+            final SharedPreferences prefs) {
+        final EditText name = new EditText(context);
+        name.setSingleLine();
+        new AlertDialog.Builder(context)
+                .setTitle(R.string.calibration_preset_name)
+                .setView(name)
+                .setPositiveButton(android.R.string.ok, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        String text = name.getText().toString().trim();
+                        if (text.length() > 0) {
+                            engine.savePreset(prefs, text);
+                        }
+                    }
+                })
+                .setNegativeButton(android.R.string.cancel, null)
+                .show();
+    }
+
+    private static void showDelete(Context context, final CalibrationEngine engine,
+            final SharedPreferences prefs, final String name) {
+        new AlertDialog.Builder(context)
+                .setMessage(context.getString(R.string.calibration_preset_delete, name))
+                .setPositiveButton(android.R.string.ok, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        engine.deletePreset(prefs, name);
+                    }
+                })
+                .setNegativeButton(android.R.string.cancel, null)
+                .show();
+    }
+}
@@ -26,7 +26,6 @@ import android.os.Parcel;
 import android.os.Parcelable;
 import android.preference.DialogPreference;
 import android.preference.PreferenceManager;
-import android.text.TextUtils;
 import android.util.AttributeSet;
 import android.view.View;
 import android.widget.SeekBar;
@@ -42,6 +41,8 @@ import org.cyanogenmod.hardware.DisplayColorCalibration;
  */
 public class DisplayColor extends DialogPreference {
     private static final String TAG = "ColorCalibration";
+    // presets live next to the saved values, see CalibrationEngine
+    private static final String PRESET_PREFIX = "display_color_";
 
     // These arrays must all match in length and order
     private static final int[] SEEKBAR_ID = new int[] {
@@ -57,8 +58,30 @@ public class DisplayColor extends DialogPreference {
     };
 
     private ColorSeekBar[] mSeekBars = new ColorSeekBar[SEEKBAR_ID.length];
-    private String[] mCurrentColors;
-    private String mOriginalColors;
+    private CalibrationEngine mEngine;
+    private int[][] mOriginalColors;
+
+    private static class ColorBackend implements CalibrationEngine.Backend {
+        @Override
+        public int getControlCount() {
+            return 1;
+        }
+
+        @Override
+        public int getChannelCount() {
+            return SEEKBAR_ID.length;
+        }
+
+        @Override
+        public String read(int control) {
+            return DisplayColorCalibration.getCurColors();
+        }
+
+        @Override
+        public void write(int control, String values) {
+            DisplayColorCalibration.setColors(values);
+        }
+    }
 
     public DisplayColor(Context context, AttributeSet attrs) {
         super(context, attrs);
@@ -67,6 +90,7 @@ public class DisplayColor extends DialogPreference {
             return;
         }
 
+        mEngine = new CalibrationEngine(new ColorBackend(), PRESET_PREFIX);
         setDialogLayoutResource(R.layout.display_color_calibration);
     }
 
@@ -84,15 +108,31 @@ public class DisplayColor extends DialogPreference {
     protected void onBindDialogView(View view) {
         super.onBindDialogView(view);
 
-        mOriginalColors = DisplayColorCalibration.getCurColors();
-        mCurrentColors = mOriginalColors.split(" ");
+        mEngine.load();
+        mOriginalColors = mEngine.getValues();
 
         for (int i = 0; i < SEEKBAR_ID.length; i++) {
             SeekBar seekBar = (SeekBar) view.findViewById(SEEKBAR_ID[i]);
             TextView value = (TextView) view.findViewById(SEEKBAR_VALUE_ID[i]);
             mSeekBars[i] = new ColorSeekBar(seekBar, value, i);
-            mSeekBars[i].setValueFromString(mCurrentColors[i]);
+            mSeekBars[i].setValue(mEngine.get(0, i));
         }
+
+        view.findViewById(R.id.calibration_presets).setOnClickListener(
+                new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                CalibrationPresetDialog.show(getContext(), mEngine, getSharedPreferences(),
+                        new Runnable() {
+                    @Override
+                    public void run() {
+                        for (int i = 0; i < mSeekBars.length; i++) {
+                            mSeekBars[i].setValue(mEngine.get(0, i));
+                        }
+                    }
+                });
+            }
+        });
     }
 
     @Override
@@ -107,11 +147,12 @@ public class DisplayColor extends DialogPreference {
             @Override
             public void onClick(View v) {
                 int defaultValue = DisplayColorCalibration.getDefValue();
+                int[][] defaults = new int[1][mSeekBars.length];
                 for (int i = 0; i < mSeekBars.length; i++) {
                     mSeekBars[i].mSeekBar.setProgress(defaultValue);
-                    mCurrentColors[i] = String.valueOf(defaultValue);
+                    defaults[0][i] = defaultValue;
                 }
-                DisplayColorCalibration.setColors(TextUtils.join(" ", mCurrentColors));
+                mEngine.setAll(defaults);
             }
         });
     }
@@ -122,10 +163,10 @@ public class DisplayColor extends DialogPreference {
 
         if (positiveResult) {
             Editor editor = getEditor();
-            editor.putString("display_color_calibration", DisplayColorCalibration.getCurColors());
+            editor.putString("display_color_calibration", mEngine.format(0));
             editor.commit();
         } else if (mOriginalColors != null) {
-            DisplayColorCalibration.setColors(mOriginalColors);
+            mEngine.setAll(mOriginalColors);
         }
     }
 
@@ -138,11 +179,11 @@ public class DisplayColor extends DialogPreference {
 
         // Save the dialog state
         final SavedState myState = new SavedState(superState);
-        myState.currentColors = mCurrentColors;
-        myState.originalColors = mOriginalColors;
+        myState.currentColors = CalibrationEngine.encode(mEngine.getValues());
+        myState.originalColors = CalibrationEngine.encode(mOriginalColors);
 
         // Restore the old state when the activity or dialog is being paused
-        DisplayColorCalibration.setColors(mOriginalColors);
+        mEngine.setAll(mOriginalColors);
         mOriginalColors = null;
 
         return myState;
@@ -158,12 +199,12 @@ public class DisplayColor extends DialogPreference {
 
         SavedState myState = (SavedState) state;
         super.onRestoreInstanceState(myState.getSuperState());
-        mOriginalColors = myState.originalColors;
-        mCurrentColors = myState.currentColors;
+        mOriginalColors = CalibrationEngine.decode(myState.originalColors);
+        int[][] currentColors = CalibrationEngine.decode(myState.currentColors);
         for (int i = 0; i < mSeekBars.length; i++) {
-            mSeekBars[i].setValueFromString(mCurrentColors[i]);
+            mSeekBars[i].setValue(currentColors[0][i]);
         }
-        DisplayColorCalibration.setColors(TextUtils.join(" ", mCurrentColors));
+        mEngine.setAll(currentColors);
     }
 
     public static boolean isSupported() {
@@ -181,16 +222,23 @@ public class DisplayColor extends DialogPreference {
         }
 
         final SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
-        final String value = prefs.getString("display_color_calibration", null);
-
-        if (value != null) {
-            DisplayColorCalibration.setColors(value);
+        final int[][] values = CalibrationEngine.decode(
+                prefs.getString("display_color_calibration", null));
+
+        if (values != null) {
+            // skipped if the hardware already has these colors
+            final CalibrationEngine engine =
+                    new CalibrationEngine(new ColorBackend(), PRESET_PREFIX);
+            engine.load();
+            engine.setAll(values);
+            engine.applyNow();
         }
     }
 
     private static class SavedState extends BaseSavedState {
+        // packed with CalibrationEngine.encode()
         String originalColors;
-        String[] currentColors;
+        String currentColors;
 
         public SavedState(Parcelable superState) {
             super(superState);
@@ -199,14 +247,14 @@ public class DisplayColor extends DialogPreference {
         public SavedState(Parcel source) {
             super(source);
             originalColors = source.readString();
-            currentColors = source.createStringArray();
+            currentColors = source.readString();
         }
 
         @Override
         public void writeToParcel(Parcel dest, int flags) {
             super.writeToParcel(dest, flags);
             dest.writeString(originalColors);
-            dest.writeStringArray(currentColors);
+            dest.writeString(currentColors);
         }
 
         public static final Parcelable.Creator<SavedState> CREATOR =
@@ -237,8 +285,8 @@ public class DisplayColor extends DialogPreference {
             mSeekBar.setOnSeekBarChangeListener(this);
         }
 
-        public void setValueFromString(String valueString) {
-            mSeekBar.setProgress(Integer.valueOf(valueString));
+        public void setValue(int value) {
+            mSeekBar.setProgress(value);
         }
 
         @Override
@@ -247,8 +295,7 @@ public class DisplayColor extends DialogPreference {
             int max = DisplayColorCalibration.getMaxValue();
 
             if (fromUser) {
-                mCurrentColors[mIndex] = String.valueOf(progress + min);
-                DisplayColorCalibration.setColors(TextUtils.join(" ", mCurrentColors));
+                mEngine.set(0, mIndex, progress + min);
             }
 
             int percent = Math.round(100F * progress / (max - min));
@@ -27,7 +27,6 @@ import android.os.Parcel;
 import android.os.Parcelable;
 import android.preference.DialogPreference;
 import android.preference.PreferenceManager;
-import android.text.TextUtils;
 import android.util.AttributeSet;
 import android.view.LayoutInflater;
 import android.view.View;
@@ -44,6 +43,8 @@ import org.cyanogenmod.hardware.DisplayGammaCalibration;
  */
 public class DisplayGamma extends DialogPreference {
     private static final String TAG = "GammaCalibration";
+    // presets live next to the saved values, see CalibrationEngine
+    private static final String PRESET_PREFIX = "display_gamma_";
 
     private static final int[] BAR_COLORS = new int[] {
         R.string.color_red_title,
@@ -53,10 +54,32 @@ public class DisplayGamma extends DialogPreference {
 
     private GammaSeekBar[][] mSeekBars;
 
-    private String[][] mCurrentColors;
-    private String[] mOriginalColors;
+    private CalibrationEngine mEngine;
+    private int[][] mOriginalColors;
     private int mNumberOfControls;
 
+    private static class GammaBackend implements CalibrationEngine.Backend {
+        @Override
+        public int getControlCount() {
+            return DisplayGammaCalibration.getNumberOfControls();
+        }
+
+        @Override
+        public int getChannelCount() {
+            return BAR_COLORS.length;
+        }
+
+        @Override
+        public String read(int control) {
+            return DisplayGammaCalibration.getCurGamma(control);
+        }
+
+        @Override
+        public void write(int control, String values) {
+            DisplayGammaCalibration.setGamma(control, values);
+        }
+    }
+
     public DisplayGamma(Context context, AttributeSet attrs) {
         super(context, attrs);
 
@@ -64,12 +87,10 @@ public class DisplayGamma extends DialogPreference {
             return;
         }
 
-        mNumberOfControls = DisplayGammaCalibration.getNumberOfControls();
+        mEngine = new CalibrationEngine(new GammaBackend(), PRESET_PREFIX);
+        mNumberOfControls = mEngine.getControlCount();
         mSeekBars = new GammaSeekBar[mNumberOfControls][BAR_COLORS.length];
 
-        mOriginalColors = new String[mNumberOfControls];
-        mCurrentColors = new String[mNumberOfControls][];
-
         setDialogLayoutResource(R.layout.display_gamma_calibration);
     }
 
@@ -93,15 +114,15 @@ public class DisplayGamma extends DialogPreference {
         final Resources res = container.getResources();
         final String[] gammaDescriptors = res.getStringArray(R.array.gamma_descriptors);
 
+        mEngine.load();
+        mOriginalColors = mEngine.getValues();
+
         // Create multiple sets of seekbars, depending on the
         // number of controls the device has
         for (int index = 0; index < mNumberOfControls; index++) {
-            mOriginalColors[index] = DisplayGammaCalibration.getCurGamma(index);
-            mCurrentColors[index] = mOriginalColors[index].split(" ");
-
             final String defaultKey = "display_gamma_default_" + index;
             if (!prefs.contains(defaultKey)) {
-                prefs.edit().putString(defaultKey, mOriginalColors[index]).commit();
+                prefs.edit().putString(defaultKey, mEngine.format(index)).commit();
             }
 
             if (mNumberOfControls != 1) {
@@ -122,13 +143,31 @@ public class DisplayGamma extends DialogPreference {
                         R.layout.display_gamma_calibration_item, container, false);
 
                 mSeekBars[index][color] = new GammaSeekBar(index, color, item);
-                mSeekBars[index][color].setGamma(Integer.valueOf(mCurrentColors[index][color]));
+                mSeekBars[index][color].setGamma(mEngine.get(index, color));
                 // make sure to add the seekbar group to the container _after_
                 // creating GammaSeekBar, so that GammaSeekBar has a chance to
                 // get the correct subviews without getting confused by duplicate IDs
                 container.addView(item);
             }
         }
+
+        view.findViewById(R.id.calibration_presets).setOnClickListener(
+                new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                CalibrationPresetDialog.show(getContext(), mEngine, getSharedPreferences(),
+                        new Runnable() {
+                    @Override
+                    public void run() {
+                        for (int index = 0; index < mNumberOfControls; index++) {
+                            for (int color = 0; color < BAR_COLORS.length; color++) {
+                                mSeekBars[index][color].setGamma(mEngine.get(index, color));
+                            }
+                        }
+                    }
+                });
+            }
+        });
     }
 
     @Override
@@ -142,20 +181,21 @@ public class DisplayGamma extends DialogPreference {
         defaultsButton.setOnClickListener(new View.OnClickListener() {
             @Override
             public void onClick(View v) {
+                final SharedPreferences prefs = getSharedPreferences();
+                final int[][] defaults = new int[mSeekBars.length][];
                 for (int index = 0; index < mSeekBars.length; index++) {
-                    final SharedPreferences prefs = getSharedPreferences();
                     final String defaultKey = "display_gamma_default_" + index;
                     // this key is guaranteed to be present, as we have
                     // created it in onBindDialogView()
-                    final String[] defaultColors = prefs.getString(defaultKey, null).split(" ");
+                    defaults[index] =
+                            CalibrationEngine.decode(prefs.getString(defaultKey, null))[0];
 
                     for (int color = 0; color < BAR_COLORS.length; color++) {
-                        mSeekBars[index][color].setGamma(Integer.valueOf(defaultColors[color]));
-                        mCurrentColors[index][color] = defaultColors[color];
+                        mSeekBars[index][color].setGamma(defaults[index][color]);
                     }
-                    DisplayGammaCalibration.setGamma(index,
-                            TextUtils.join(" ", mCurrentColors[index]));
                 }
+                // only the controls that differ get written, all at once
+                mEngine.setAll(defaults);
             }
        });
     }
@@ -167,13 +207,11 @@ public class DisplayGamma extends DialogPreference {
         if (positiveResult) {
             Editor editor = getEditor();
             for (int i = 0; i < mNumberOfControls; i++) {
-                editor.putString("display_gamma_" + i, DisplayGammaCalibration.getCurGamma(i));
+                editor.putString("display_gamma_" + i, mEngine.format(i));
             }
             editor.commit();
         } else if (mOriginalColors != null) {
-            for (int i = 0; i < mNumberOfControls; i++) {
-                DisplayGammaCalibration.setGamma(i, mOriginalColors[i]);
-            }
+            mEngine.setAll(mOriginalColors);
         }
     }
 
@@ -186,14 +224,11 @@ public class DisplayGamma extends DialogPreference {
 
         // Save the dialog state
         final SavedState myState = new SavedState(superState);
-        myState.controlCount = mNumberOfControls;
-        myState.currentColors = mCurrentColors;
-        myState.originalColors = mOriginalColors;
+        myState.currentColors = CalibrationEngine.encode(mEngine.getValues());
+        myState.originalColors = CalibrationEngine.encode(mOriginalColors);
 
         // Restore the old state when the activity or dialog is being paused
-        for (int i = 0; i < mNumberOfControls; i++) {
-            DisplayGammaCalibration.setGamma(i, mOriginalColors[i]);
-        }
+        mEngine.setAll(mOriginalColors);
         mOriginalColors = null;
 
         return myState;
@@ -209,16 +244,15 @@ public class DisplayGamma extends DialogPreference {
 
         SavedState myState = (SavedState) state;
         super.onRestoreInstanceState(myState.getSuperState());
-        mNumberOfControls = myState.controlCount;
-        mOriginalColors = myState.originalColors;
-        mCurrentColors = myState.currentColors;
+        mOriginalColors = CalibrationEngine.decode(myState.originalColors);
+        int[][] currentColors = CalibrationEngine.decode(myState.currentColors);
 
         for (int index = 0; index < mNumberOfControls; index++) {
             for (int color = 0; color < BAR_COLORS.length; color++) {
-                mSeekBars[index][color].setGamma(Integer.valueOf(mCurrentColors[index][color]));
+                mSeekBars[index][color].setGamma(currentColors[index][color]);
             }
-            DisplayGammaCalibration.setGamma(index, TextUtils.join(" ", mCurrentColors[index]));
         }
+        mEngine.setAll(currentColors);
     }
 
     public static boolean isSupported() {
@@ -236,18 +270,27 @@ public class DisplayGamma extends DialogPreference {
         }
 
         final SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
-        for (int i = 0; i < DisplayGammaCalibration.getNumberOfControls(); i++) {
-            final String values = prefs.getString("display_gamma_" + i, null);
-            if (values != null) {
-                DisplayGammaCalibration.setGamma(i, values);
+        final CalibrationEngine engine =
+                new CalibrationEngine(new GammaBackend(), PRESET_PREFIX);
+        // start from what the hardware has, so controls that already match
+        // are not written again
+        engine.load();
+        final int[][] values = engine.getValues();
+        for (int i = 0; i < values.length; i++) {
+            final int[][] saved = CalibrationEngine.decode(
+                    prefs.getString("display_gamma_" + i, null));
+            if (saved != null) {
+                values[i] = saved[0];
             }
         }
+        engine.setAll(values);
+        engine.applyNow();
     }
 
     private static class SavedState extends BaseSavedState {
-        int controlCount;
-        String[] originalColors;
-        String[][] currentColors;
+        // packed with CalibrationEngine.encode()
+        String originalColors;
+        String currentColors;
 
         public SavedState(Parcelable superState) {
             super(superState);
@@ -255,22 +298,15 @@ public class DisplayGamma extends DialogPreference {
 
         public SavedState(Parcel source) {
             super(source);
-            controlCount = source.readInt();
-            originalColors = source.createStringArray();
-            currentColors = new String[controlCount][];
-            for (int i = 0; i < controlCount; i++) {
-                currentColors[i] = source.createStringArray();
-            }
+            originalColors = source.readString();
+            currentColors = source.readString();
         }
 
         @Override
         public void writeToParcel(Parcel dest, int flags) {
             super.writeToParcel(dest, flags);
-            dest.writeInt(controlCount);
-            dest.writeStringArray(originalColors);
-            for (int i = 0; i < controlCount; i++) {
-                dest.writeStringArray(currentColors[i]);
-            }
+            dest.writeString(originalColors);
+            dest.writeString(currentColors);
         }
 
         public static final Parcelable.Creator<SavedState> CREATOR =
@@ -321,9 +357,7 @@ public class DisplayGamma extends DialogPreference {
         @Override
         public void onProgressChanged(SeekBar seekBar, int progress, boolean fromUser) {
             if (fromUser) {
-                mCurrentColors[mControlIndex][mColorIndex] = String.valueOf(progress + mMin);
-                DisplayGammaCalibration.setGamma(mControlIndex,
-                        TextUtils.join(" ", mCurrentColors[mControlIndex]));
+                mEngine.set(mControlIndex, mColorIndex, progress + mMin);
             }
             mValue.setText(String.valueOf(progress + mMin));
         }
@@ -26,8 +26,12 @@ import android.graphics.LightingColorFilter;
 import android.graphics.drawable.Drawable;
 import android.graphics.drawable.LayerDrawable;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.HandlerThread;
 import android.os.Parcel;
 import android.os.Parcelable;
+import android.os.Process;
+import android.os.SystemClock;
 import android.preference.DialogPreference;
 import android.preference.PreferenceManager;
 import android.util.AttributeSet;
@@ -41,6 +45,8 @@ import com.oct.tentacles.R;
 
 public abstract class HWValueSliderPreference extends DialogPreference implements
         SeekBar.OnSeekBarChangeListener {
+    private static final String TAG = "HWValueSliderPreference";
+
     private SeekBar mSeekBar;
     private TextView mValue;
     private TextView mWarning;
@@ -48,11 +54,18 @@ public abstract class HWValueSliderPreference extends DialogPreference implement
     private int mMin;
 
     private HardwareInterface mHw;
+    private HardwareWriter mWriter;
 
     private Drawable mProgressDrawable;
     private Drawable mProgressThumb;
     private LightingColorFilter mRedFilter;
 
+    /** Default upper bound of hardware writes per second while dragging */
+    public static final int DEFAULT_MAX_WRITE_RATE = 20;
+
+    private static HandlerThread sWriterThread;
+    private static Handler sWriterHandler;
+
     protected interface HardwareInterface {
         int getMinValue();
         int getMaxValue();
@@ -69,6 +82,105 @@ public abstract class HWValueSliderPreference extends DialogPreference implement
         if (hw != null) {
             mHw = hw;
             mMin = hw.getMinValue();
+            mWriter = new HardwareWriter(hw);
+        }
+    }
+
+    /**
+     * Limits how often the hardware gets written while the slider is
+     * dragged, the value the slider stops at is always written.
+     */
+    protected void setMaxWriteRate(int writesPerSecond) {
+        mWriter.setMinInterval(1000 / Math.max(1, writesPerSecond));
+    }
+
+    private static synchronized Handler getWriterHandler() {
+        if (sWriterHandler == null) {
+            sWriterThread = new HandlerThread("HWValueWriter",
+                    Process.THREAD_PRIORITY_BACKGROUND);
+            sWriterThread.start();
+            sWriterHandler = new Handler(sWriterThread.getLooper());
+        }
+        return sWriterHandler;
+    }
+
+    /**
+     * Writes values off the UI thread. Values arriving faster than the
+     * write rate replace each other, only the newest one is written.
+     */
+    private static class HardwareWriter implements Runnable {
+        private static final int NONE = Integer.MIN_VALUE;
+
+        private final HardwareInterface mHw;
+        private final Handler mHandler = getWriterHandler();
+        private long mMinInterval = 1000 / DEFAULT_MAX_WRITE_RATE;
+        private int mPending = NONE;
+        private int mWritten = NONE;
+        private long mLastWrite;
+        private boolean mScheduled;
+
+        HardwareWriter(HardwareInterface hw) {
+            mHw = hw;
+        }
+
+        synchronized void setMinInterval(long ms) {
+            mMinInterval = ms;
+        }
+
+        /**
+         * Tells us what the hardware is set to, so we don't write it again.
+         */
+        synchronized void setWritten(int value) {
+            mWritten = value;
+        }
+
+        /**
+         * Queues value, it is written once the write rate allows.
+         */
+        synchronized void post(int value) {
+            mPending = value;
+            if (!mScheduled) {
+                long delay = mLastWrite + mMinInterval - SystemClock.uptimeMillis();
+                mHandler.postDelayed(this, Math.max(0, delay));
+                mScheduled = true;
+            }
+        }
+
+        /**
+         * Writes value right away, ignoring the write rate, and drops
+         * anything still queued.
+         */
+        synchronized void flush(int value) {
+            mPending = value;
+            mHandler.removeCallbacks(this);
+            mHandler.post(this);
+            mScheduled = true;
+        }
+
+        /**
+         * Runs r on the writer thread once the writes queued so far are done.
+         */
+        void runAfterWrites(Runnable r) {
+            mHandler.post(r);
+        }
+
+        @Override
+        public void run() {
+            int value;
+            synchronized (this) {
+                value = mPending;
+                mPending = NONE;
+                mScheduled = false;
+                if (value == NONE || value == mWritten) {
+                    return;
+                }
+                mWritten = value;
+                mLastWrite = SystemClock.uptimeMillis();
+            }
+            if (!mHw.setValue(value)) {
+                Log.w(TAG, "Failed to write " + value
+                        + " for " + mHw.getPreferenceName());
+            }
         }
     }
 
@@ -110,6 +222,7 @@ public abstract class HWValueSliderPreference extends DialogPreference implement
 
         // Read the current value in case user wants to dismiss his changes
         mOriginalValue = mHw.getCurrentValue();
+        mWriter.setWritten(mOriginalValue);
 
         // Restore percent value from SharedPreferences object
         SharedPreferences settings = PreferenceManager.getDefaultSharedPreferences(getContext());
@@ -146,8 +259,9 @@ public abstract class HWValueSliderPreference extends DialogPreference implement
                     PreferenceManager.getDefaultSharedPreferences(getContext()).edit();
             editor.putInt(mHw.getPreferenceName(), mSeekBar.getProgress() + mMin);
             editor.commit();
+            mWriter.flush(mSeekBar.getProgress() + mMin);
         } else if (mOriginalValue >= mMin) {
-            mHw.setValue(mOriginalValue);
+            mWriter.flush(mOriginalValue);
         }
     }
 
@@ -164,7 +278,7 @@ public abstract class HWValueSliderPreference extends DialogPreference implement
         myState.originalValue = mOriginalValue;
 
         // Restore the old state when the activity or dialog is being paused
-        mHw.setValue(mOriginalValue);
+        mWriter.flush(mOriginalValue);
         mOriginalValue = Integer.MIN_VALUE;
 
         return myState;
@@ -203,7 +317,7 @@ public abstract class HWValueSliderPreference extends DialogPreference implement
             mProgressThumb.setColorFilter(shouldWarn ? mRedFilter : null);
         }
 
-        mHw.setValue(progress + mMin);
+        mWriter.post(progress + mMin);
         mValue.setText(String.format("%d%%", hwValueToPercent(progress + mMin)));
     }
 
@@ -214,7 +328,15 @@ public abstract class HWValueSliderPreference extends DialogPreference implement
 
     @Override
     public void onStopTrackingTouch(SeekBar seekBar) {
-        // Do nothing here
+        mWriter.flush(seekBar.getProgress() + mMin);
+    }
+
+    /**
+     * Runs r off the UI thread after the value flushed when the finger was
+     * lifted has been written, for previews of the new value.
+     */
+    protected void runAfterWrites(Runnable r) {
+        mWriter.runAfterWrites(r);
     }
 
     private int hwValueToPercent(int value) {
@@ -64,8 +64,15 @@ public class VibratorIntensity extends HWValueSliderPreference {
 
     @Override
     public void onStopTrackingTouch(SeekBar seekBar) {
-        Vibrator vib = (Vibrator) getContext().getSystemService(Context.VIBRATOR_SERVICE);
-        vib.vibrate(200);
+        super.onStopTrackingTouch(seekBar);
+        final Vibrator vib = (Vibrator) getContext().getSystemService(Context.VIBRATOR_SERVICE);
+        // preview with the intensity just written, not the one before it
+        runAfterWrites(new Runnable() {
+            @Override
+            public void run() {
+                vib.vibrate(200);
+            }
+        });
     }
 
     public static boolean isSupported() {
@@ -24,15 +24,15 @@ import android.content.Context;
 import android.content.DialogInterface;
 import android.content.Intent;
 import android.os.Bundle;
-import android.os.Handler;
-import android.os.Message;
 import android.provider.Settings;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.ArrayAdapter;
+import android.widget.Button;
 import android.widget.CompoundButton;
 import android.widget.ListView;
+import android.widget.NumberPicker;
 import android.widget.SeekBar;
 import android.widget.Switch;
 import android.widget.TextView;
@@ -41,6 +41,7 @@ import com.brewcrewfoo.performance.util.Constants;
 import com.brewcrewfoo.performance.util.Helpers;
 import com.oct.tentacles.R;
 import com.oct.tentacles.preference.SettingsPreferenceFragment;
+import com.oct.tentacles.util.CpuFrequencySampler;
 
 import java.io.File;
 import java.util.ArrayList;
@@ -58,7 +59,6 @@ public class BatteryCpuSettings extends Fragment
     private String[] mAvailableFrequencies;
     private String mMaxFreqSetting;
     private String mCurMaxSpeed;
-    private CurCPUThread mCurCPUThread;
     private boolean mIsTegra3 = false;
     private boolean mIsDynFreq = false;
 
@@ -68,6 +68,9 @@ public class BatteryCpuSettings extends Fragment
     private CpuInfoListAdapter mCpuInfoListAdapter;
     private List<String> mCpuInfoListData;
     private LayoutInflater mInflater;
+    private CpuFrequencyCurve mCurve;
+    private Switch mCurveEnabled;
+    private TextView mCurveSteps;
 
     public class CpuInfoListAdapter extends ArrayAdapter<String> {
 
@@ -190,9 +193,90 @@ public class BatteryCpuSettings extends Fragment
             }
         });
 
+        mCurve = CpuFrequencyCurve.load(context);
+        mCurveSteps = (TextView) view.findViewById(R.id.battery_saver_cpu_curve_steps);
+        mCurveEnabled = (Switch) view.findViewById(R.id.battery_saver_cpu_curve_switch);
+        mCurveEnabled.setChecked(CpuFrequencyCurve.isEnabled(context));
+        mCurveEnabled.setOnCheckedChangeListener(new CompoundButton.OnCheckedChangeListener() {
+            @Override
+            public void onCheckedChanged(CompoundButton v, boolean checked) {
+                saveCurve();
+            }
+        });
+        Button addStep = (Button) view.findViewById(R.id.battery_saver_cpu_curve_add);
+        addStep.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                showAddStepDialog();
+            }
+        });
+        Button clearSteps = (Button) view.findViewById(R.id.battery_saver_cpu_curve_clear);
+        clearSteps.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                mCurve.clearSteps();
+                saveCurve();
+            }
+        });
+        updateCurveSteps();
+
         return view;
     }
 
+    /**
+     * Asks for the battery level to cap the cpu at the speed picked on the
+     * slider from.
+     */
+    private void showAddStepDialog() {
+        final int maxFreq;
+        try {
+            maxFreq = Integer.parseInt(mMaxFreqSetting);
+        } catch (NumberFormatException e) {
+            return;
+        }
+        final NumberPicker level = new NumberPicker(context);
+        level.setMinValue(1);
+        level.setMaxValue(99);
+        level.setValue(20);
+        new AlertDialog.Builder(context)
+                .setTitle(getString(R.string.battery_saver_cpu_curve_add_title,
+                        Helpers.toMHz(mMaxFreqSetting)))
+                .setView(level)
+                .setPositiveButton(R.string.ok, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int id) {
+                        mCurve.addStep(new CpuFrequencyCurve.Step(level.getValue(),
+                                maxFreq, null));
+                        saveCurve();
+                    }
+                })
+                .setNegativeButton(android.R.string.cancel, null)
+                .show();
+    }
+
+    private void saveCurve() {
+        mCurve.save(context, mCurveEnabled.isChecked());
+        CpuCurveService.update(context);
+        updateCurveSteps();
+    }
+
+    private void updateCurveSteps() {
+        List<CpuFrequencyCurve.Step> steps = mCurve.getSteps();
+        if (steps.isEmpty()) {
+            mCurveSteps.setText(R.string.battery_saver_cpu_curve_empty);
+            return;
+        }
+        StringBuilder sb = new StringBuilder();
+        for (CpuFrequencyCurve.Step step : steps) {
+            if (sb.length() > 0) {
+                sb.append('\n');
+            }
+            sb.append(getString(R.string.battery_saver_cpu_curve_step, step.level,
+                    Helpers.toMHz(Integer.toString(step.maxFreq))));
+        }
+        mCurveSteps.setText(sb);
+    }
+
     @Override
     public void onProgressChanged(SeekBar seekBar, int progress, boolean fromUser) {
         if (fromUser) {
@@ -212,10 +296,7 @@ public class BatteryCpuSettings extends Fragment
 
     @Override
     public void onResume() {
-        if (mCurCPUThread == null) {
-            mCurCPUThread = new CurCPUThread();
-            mCurCPUThread.start();
-        }
+        CpuFrequencySampler.getInstance(context).register(mCpuListener);
         super.onResume();
     }
 
@@ -224,17 +305,7 @@ public class BatteryCpuSettings extends Fragment
         Helpers.updateAppWidget(context);
         super.onPause();
 
-        if (mCurCPUThread != null) {
-            if (mCurCPUThread.isAlive()) {
-                mCurCPUThread.interrupt();
-                try {
-                    mCurCPUThread.join();
-                } catch (InterruptedException e) {
-                }
-            }
-
-            mCurCPUThread = null;
-        }
+        CpuFrequencySampler.getInstance(context).unregister(mCpuListener);
     }
 
     public void setMaxSpeed(SeekBar seekBar, int progress) {
@@ -244,51 +315,19 @@ public class BatteryCpuSettings extends Fragment
         updateSettingsValue(current);
     }
 
-    protected class CurCPUThread extends Thread {
-        private boolean mInterrupt = false;
-
-        public void interrupt() {
-            mInterrupt = true;
-        }
-
+    private final CpuFrequencySampler.Listener mCpuListener =
+            new CpuFrequencySampler.Listener() {
         @Override
-        public void run() {
-            try {
-                while (!mInterrupt) {
-                    sleep(500);
-                    List<String> freqs = new ArrayList<String>();
-                    for (int i = 0; i < mCpuNum; i++) {
-                        String cpuFreq = CPU_PATH + String.valueOf(i) + CPU_FREQ_TAIL;
-                        String curFreq = "0";
-                        if (Helpers.fileExists(cpuFreq)) {
-                            curFreq = Helpers.readOneLine(cpuFreq);
-                        }
-                        freqs.add(curFreq);
-                    }
-                    String[] freqArray = freqs.toArray(new String[freqs.size()]);
-                    mCurCPUHandler.sendMessage(mCurCPUHandler.obtainMessage(0, freqArray));
-                }
-            } catch (InterruptedException e) {
-                //return;
-            }
-        }
-    }
-
-    protected Handler mCurCPUHandler = new Handler() {
-        public void handleMessage(Message msg) {
-            String[] freqArray = (String[]) msg.obj;
-            for (int i = 0; i < freqArray.length; i++) {
+        public void onCpuFrequencies(int[] freqs) {
+            int count = Math.min(freqs.length, mCpuInfoListData.size());
+            for (int i = 0; i < count; i++) {
                 // Convert freq in MHz
-                try {
-                    int freqHz = Integer.parseInt(freqArray[i]);
+                int freqHz = freqs[i];
 
-                    if (freqHz == 0) {
-                        mCpuInfoListData.set(i, getString(R.string.battery_saver_mode_core_offline));
-                    } else {
-                        mCpuInfoListData.set(i, Integer.toString(freqHz / 1000) + " MHz");
-                    }
-                } catch (Exception e) {
-                    // Do nothing
+                if (freqHz == CpuFrequencySampler.OFFLINE) {
+                    mCpuInfoListData.set(i, getString(R.string.battery_saver_mode_core_offline));
+                } else {
+                    mCpuInfoListData.set(i, Integer.toString(freqHz / 1000) + " MHz");
                 }
             }
             mCpuInfoListAdapter.notifyDataSetChanged();
@@ -20,10 +20,23 @@ import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
 
+import com.oct.tentacles.service.BootRestore;
+
 public class BootReceiver extends BroadcastReceiver {
 
     @Override
-    public void onReceive(Context context, Intent intent) {
-        BatterySaverHelper.scheduleService(context);
+    public void onReceive(final Context context, Intent intent) {
+        // the battery saver schedule is restored along with the rest
+        final PendingResult result = goAsync();
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    BootRestore.run(context.getApplicationContext());
+                } finally {
+                    result.finish();
+                }
+            }
+        }, "BootRestore").start();
     }
 }
@@ -0,0 +1,198 @@
+/*
+ * Copyright (C) 2014 The OmniROM Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.oct.tentacles.fragments.batterysaver;
+
+import android.app.Service;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.SharedPreferences;
+import android.os.BatteryManager;
+import android.os.IBinder;
+import android.preference.PreferenceManager;
+import android.util.Log;
+
+import com.oct.tentacles.util.BatchResult;
+import com.oct.tentacles.util.CMDProcessorAOKP;
+import com.oct.tentacles.util.CpuFrequencySampler;
+import com.oct.tentacles.util.Helpers;
+import com.oct.tentacles.util.RootCommandScheduler;
+
+import java.util.ArrayList;
+
+/**
+ * Follows the battery and applies the {@link CpuFrequencyCurve} step that
+ * matches. A step change writes all cores as one root script on the
+ * background lane.
+ */
+public class CpuCurveService extends Service {
+    private static final String TAG = "CpuCurveService";
+
+    private static final String CPU_DIR = "/sys/devices/system/cpu/cpu";
+    // governor before we first changed it, kept until it is restored so a
+    // restart of the service doesn't take the one we set for the original
+    private static final String PREF_ORIGINAL_GOVERNOR = "battery_saver_cpu_curve_governor";
+
+    private CpuFrequencyCurve mCurve;
+    private int mCpuCount;
+    private int mState = CpuFrequencyCurve.UNCAPPED;
+    private boolean mApplied;
+    // governor we last wrote, null while the user's is in place
+    private String mGovernor;
+
+    private final BroadcastReceiver mBatteryReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            int level = intent.getIntExtra(BatteryManager.EXTRA_LEVEL, 0);
+            int scale = intent.getIntExtra(BatteryManager.EXTRA_SCALE, 100);
+            int plugged = intent.getIntExtra(BatteryManager.EXTRA_PLUGGED, 0);
+            onBatteryChanged(scale > 0 ? level * 100 / scale : level, plugged != 0);
+        }
+    };
+
+    /**
+     * Starts or stops the service to match the saved preference.
+     */
+    public static void update(Context context) {
+        Intent intent = new Intent(context, CpuCurveService.class);
+        if (CpuFrequencyCurve.isEnabled(context)) {
+            context.startService(intent);
+        } else {
+            context.stopService(intent);
+        }
+    }
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        mCpuCount = CpuFrequencySampler.getInstance(this).getCpuCount();
+    }
+
+    @Override
+    public int onStartCommand(Intent intent, int flags, int startId) {
+        // the curve may have been edited, start over with it
+        mCurve = CpuFrequencyCurve.load(this);
+        // step indices of the old curve mean nothing in the new one
+        mState = CpuFrequencyCurve.UNCAPPED;
+        mApplied = false;
+        unregisterReceiverSafely();
+        // sticky, so this also delivers the current state right away
+        registerReceiver(mBatteryReceiver, new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+        return START_STICKY;
+    }
+
+    @Override
+    public void onDestroy() {
+        unregisterReceiverSafely();
+        if (mState != CpuFrequencyCurve.UNCAPPED) {
+            mState = CpuFrequencyCurve.UNCAPPED;
+            apply(null);
+        }
+        super.onDestroy();
+    }
+
+    @Override
+    public IBinder onBind(Intent intent) {
+        return null;
+    }
+
+    private void unregisterReceiverSafely() {
+        try {
+            unregisterReceiver(mBatteryReceiver);
+        } catch (IllegalArgumentException ignored) {
+            // was not registered
+        }
+    }
+
+    private void onBatteryChanged(int level, boolean charging) {
+        int state = mCurve.evaluate(level, charging, mState);
+        if (state == mState && mApplied) {
+            // battery broadcasts come often, most don't move us
+            return;
+        }
+        Log.d(TAG, "level " + level + (charging ? " charging" : "")
+                + ", state " + mState + " -> " + state);
+        mState = state;
+        mApplied = true;
+        apply(mCurve.getStep(state));
+    }
+
+    private void apply(CpuFrequencyCurve.Step step) {
+        // rewriting a governor resets its tunables, only touch it on changes
+        String governor = step != null ? step.governor : null;
+        if (governor != null) {
+            if (governor.equals(mGovernor)) {
+                governor = null;
+            } else {
+                saveOriginalGovernor();
+                mGovernor = governor;
+            }
+        } else {
+            governor = restoreOriginalGovernor();
+            mGovernor = null;
+        }
+
+        final ArrayList<String> commands = new ArrayList<String>();
+        for (int i = 0; i < mCpuCount; i++) {
+            String dir = CPU_DIR + i + "/cpufreq/";
+            if (step == null || step.maxFreq <= 0) {
+                commands.add("cat " + dir + "cpuinfo_max_freq > " + dir + "scaling_max_freq");
+            } else {
+                commands.add("echo " + step.maxFreq + " > " + dir + "scaling_max_freq");
+            }
+            if (governor != null) {
+                commands.add("echo " + governor + " > " + dir + "scaling_governor");
+            }
+        }
+        RootCommandScheduler.getInstance().submit(RootCommandScheduler.LANE_BACKGROUND,
+                new Runnable() {
+                    @Override
+                    public void run() {
+                        // offline cores have no cpufreq directory, their
+                        // writes fail and that's fine
+                        BatchResult result = CMDProcessorAOKP.runSuBatch(
+                                commands.toArray(new String[commands.size()]));
+                        Log.d(TAG, "Applied " + commands.size() + " writes in "
+                                + result.getElapsedTimeMillis() + "ms");
+                    }
+                });
+    }
+
+    private void saveOriginalGovernor() {
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(this);
+        if (prefs.contains(PREF_ORIGINAL_GOVERNOR)) {
+            return;
+        }
+        String original = Helpers.readOneLine(CPU_DIR + "0/cpufreq/scaling_governor");
+        if (original != null) {
+            prefs.edit().putString(PREF_ORIGINAL_GOVERNOR, original.trim()).commit();
+        }
+    }
+
+    /**
+     * @return the governor to write back, null if we never changed it
+     */
+    private String restoreOriginalGovernor() {
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(this);
+        String original = prefs.getString(PREF_ORIGINAL_GOVERNOR, null);
+        if (original != null) {
+            prefs.edit().remove(PREF_ORIGINAL_GOVERNOR).commit();
+        }
+        return original;
+    }
+}
@@ -0,0 +1,219 @@
+/*
+ * Copyright (C) 2014 The OmniROM Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.oct.tentacles.fragments.batterysaver;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Max cpu frequency (and optionally governor) as a function of the battery
+ * level and whether we are charging.
+ *
+ * Each step caps the cpu once the level dropped to its threshold; above
+ * the highest threshold, and while charging unless a charging step is set,
+ * the cpu is not capped. Going back to a less restrictive step needs the
+ * level to rise {@link #HYSTERESIS} percent over the threshold, so the
+ * cap doesn't flap around a boundary.
+ */
+public class CpuFrequencyCurve {
+    private static final String TAG = "CpuFrequencyCurve";
+
+    public static final String PREF_CURVE = "battery_saver_cpu_curve";
+    public static final String PREF_CHARGING = "battery_saver_cpu_curve_charging";
+    public static final String PREF_ENABLED = "battery_saver_cpu_curve_enabled";
+
+    /** Battery percent above a threshold needed to leave its step */
+    public static final int HYSTERESIS = 3;
+
+    /** State index for "not capped" */
+    public static final int UNCAPPED = -1;
+    /** State index for the charging step */
+    public static final int CHARGING = -2;
+
+    public static class Step {
+        public final int level;
+        /** kHz */
+        public final int maxFreq;
+        /** null to leave the governor alone */
+        public final String governor;
+
+        public Step(int level, int maxFreq, String governor) {
+            this.level = level;
+            this.maxFreq = maxFreq;
+            this.governor = governor;
+        }
+    }
+
+    // sorted by level, highest first, so later steps are more restrictive
+    private final ArrayList<Step> mSteps = new ArrayList<Step>();
+    private Step mCharging;
+
+    public CpuFrequencyCurve() {
+    }
+
+    /**
+     * Adds a step, replacing any step at the same level.
+     */
+    public void addStep(Step step) {
+        for (int i = mSteps.size() - 1; i >= 0; i--) {
+            if (mSteps.get(i).level == step.level) {
+                mSteps.remove(i);
+            }
+        }
+        mSteps.add(step);
+        Collections.sort(mSteps, new Comparator<Step>() {
+            @Override
+            public int compare(Step lhs, Step rhs) {
+                return rhs.level - lhs.level;
+            }
+        });
+    }
+
+    public void clearSteps() {
+        mSteps.clear();
+    }
+
+    public List<Step> getSteps() {
+        return Collections.unmodifiableList(mSteps);
+    }
+
+    /**
+     * @param step what to apply while charging, null for no cap
+     */
+    public void setChargingStep(Step step) {
+        mCharging = step;
+    }
+
+    /**
+     * @return the step for a state index, null for {@link #UNCAPPED}
+     */
+    public Step getStep(int state) {
+        if (state == CHARGING) {
+            return mCharging;
+        }
+        return state == UNCAPPED ? null : mSteps.get(state);
+    }
+
+    /**
+     * Picks the state for level, starting from the current one so the
+     * hysteresis can apply.
+     *
+     * @param current the state returned last time, {@link #UNCAPPED} at first
+     * @return an index into {@link #getSteps()}, {@link #UNCAPPED} or
+     *         {@link #CHARGING}
+     */
+    public int evaluate(int level, boolean charging, int current) {
+        if (charging) {
+            return mCharging != null ? CHARGING : UNCAPPED;
+        }
+        // the most restrictive step the level reached
+        int target = UNCAPPED;
+        for (int i = 0; i < mSteps.size(); i++) {
+            if (level <= mSteps.get(i).level) {
+                target = i;
+            }
+        }
+        // a state from before the steps were edited may be out of range
+        if (current >= mSteps.size()) {
+            current = mSteps.size() - 1;
+        }
+        if (current == CHARGING || target >= current) {
+            return target;
+        }
+        // relaxing: only leave a step once well above its threshold
+        int state = current;
+        while (state > target && level > mSteps.get(state).level + HYSTERESIS) {
+            state--;
+        }
+        return state;
+    }
+
+    /**
+     * "level:freq[:governor];..." steps, governor may be left out.
+     */
+    public static String encode(List<Step> steps) {
+        StringBuilder sb = new StringBuilder();
+        for (Step step : steps) {
+            if (sb.length() > 0) {
+                sb.append(';');
+            }
+            sb.append(encode(step));
+        }
+        return sb.toString();
+    }
+
+    private static String encode(Step step) {
+        String s = step.level + ":" + step.maxFreq;
+        return step.governor != null ? s + ":" + step.governor : s;
+    }
+
+    private static Step decodeStep(String s) {
+        String[] fields = s.split(":");
+        if (fields.length < 2) {
+            return null;
+        }
+        try {
+            return new Step(Integer.parseInt(fields[0]), Integer.parseInt(fields[1]),
+                    fields.length > 2 ? fields[2] : null);
+        } catch (NumberFormatException e) {
+            Log.w(TAG, "Ignoring bad step " + s);
+            return null;
+        }
+    }
+
+    public static boolean isEnabled(Context context) {
+        return PreferenceManager.getDefaultSharedPreferences(context)
+                .getBoolean(PREF_ENABLED, false);
+    }
+
+    public static CpuFrequencyCurve load(Context context) {
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        CpuFrequencyCurve curve = new CpuFrequencyCurve();
+        String steps = prefs.getString(PREF_CURVE, "");
+        for (String s : steps.split(";")) {
+            Step step = decodeStep(s);
+            if (step != null) {
+                curve.addStep(step);
+            }
+        }
+        String charging = prefs.getString(PREF_CHARGING, null);
+        if (charging != null) {
+            curve.setChargingStep(decodeStep(charging));
+        }
+        return curve;
+    }
+
+    public void save(Context context, boolean enabled) {
+        SharedPreferences.Editor editor =
+                PreferenceManager.getDefaultSharedPreferences(context).edit();
+        editor.putString(PREF_CURVE, encode(mSteps));
+        if (mCharging != null) {
+            editor.putString(PREF_CHARGING, encode(mCharging));
+        } else {
+            editor.remove(PREF_CHARGING);
+        }
+        editor.putBoolean(PREF_ENABLED, enabled);
+        editor.commit();
+    }
+}
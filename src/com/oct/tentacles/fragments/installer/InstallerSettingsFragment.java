@@ -30,7 +30,8 @@ import com.oct.tentacles.Utils;
 import com.oct.tentacles.preference.SettingsPreferenceFragment;
 import com.oct.tentacles.util.CMDProcessorAOKP;
 import com.oct.tentacles.util.CommandResult;
-import com.oct.tentacles.util.HelpersAOKP;
+import com.oct.tentacles.util.RootCommandScheduler;
+import com.oct.tentacles.util.SystemMount;
 
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
@@ -136,11 +137,11 @@ public class InstallerSettingsFragment extends SettingsPreferenceFragment implem
     }
 
     boolean savePrefs() {
-        AsyncTask.execute(new Runnable() {
+        Runnable save = new Runnable() {
             @Override
             public void run() {
                 BufferedWriter bw = null;
-                HelpersAOKP.getMount("rw");
+                SystemMount.Scope mount = SystemMount.getInstance().acquire();
                 String[] cmdarray = new String[3];
                 cmdarray[0] = "su";
                 cmdarray[1] = "-c";
@@ -153,13 +154,18 @@ public class InstallerSettingsFragment extends SettingsPreferenceFragment implem
                 for (String line : mPersistTrailer) {
                     childStdin.append(line + "\n");
                 }
-                CommandResult cr = CMDProcessorAOKP.runSysCmd(cmdarray, childStdin.toString());
-                Log.i(TAG, "savePrefs: result=" + cr.getExitValue());
-                Log.i(TAG, "savePrefs: stdout=" + cr.getStdout());
-                Log.i(TAG, "savePrefs: stderr=" + cr.getStderr());
-                HelpersAOKP.getMount("ro");
+                try {
+                    CommandResult cr = CMDProcessorAOKP.runSysCmd(cmdarray, childStdin.toString());
+                    Log.i(TAG, "savePrefs: result=" + cr.getExitValue());
+                    Log.i(TAG, "savePrefs: stdout=" + cr.getStdout());
+                    Log.i(TAG, "savePrefs: stderr=" + cr.getStderr());
+                } finally {
+                    mount.release();
+                }
             }
-        });
+        };
+        // the user just tapped, don't queue behind other AsyncTasks
+        RootCommandScheduler.getInstance().submit(RootCommandScheduler.LANE_INTERACTIVE, save);
         return true;
     }
 
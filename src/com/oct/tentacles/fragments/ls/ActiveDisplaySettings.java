@@ -36,6 +36,8 @@ import com.oct.tentacles.R;
 import com.oct.tentacles.preference.SettingsPreferenceFragment;
 import com.oct.tentacles.chameleonos.AppMultiSelectListPreference;
 import com.oct.tentacles.chameleonos.SeekBarPreference;
+import com.oct.tentacles.util.SettingsSnapshot;
+import com.oct.tentacles.util.SettingsTransaction;
 
 import com.android.internal.util.slim.DeviceUtils;
 
@@ -87,15 +89,29 @@ public class ActiveDisplaySettings extends SettingsPreferenceFragment implements
     public void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
 
-        addPreferencesFromResource(R.xml.active_display_settings);
-
         mContext = getActivity().getApplicationContext();
         mResolver = mContext.getContentResolver();
+        // fetch in the background while the preferences inflate
+        SettingsSnapshot settings = new SettingsSnapshot(mResolver, SettingsTransaction.SYSTEM,
+                Settings.System.ENABLE_ACTIVE_DISPLAY,
+                Settings.System.ACTIVE_DISPLAY_BYPASS,
+                Settings.System.ACTIVE_DISPLAY_POCKET_MODE,
+                Settings.System.ACTIVE_DISPLAY_THRESHOLD,
+                Settings.System.ACTIVE_DISPLAY_TURNOFF_MODE,
+                Settings.System.ACTIVE_DISPLAY_SUNLIGHT_MODE,
+                Settings.System.ACTIVE_DISPLAY_REDISPLAY,
+                Settings.System.ACTIVE_DISPLAY_ANNOYING,
+                Settings.System.ACTIVE_DISPLAY_EXCLUDED_APPS,
+                Settings.System.ACTIVE_DISPLAY_PRIVACY_APPS,
+                Settings.System.ACTIVE_DISPLAY_SHOW_AMPM,
+                Settings.System.ACTIVE_DISPLAY_BRIGHTNESS,
+                Settings.System.ACTIVE_DISPLAY_TIMEOUT).prefetch();
+
+        addPreferencesFromResource(R.xml.active_display_settings);
         PreferenceScreen prefSet = getPreferenceScreen();
 
         mEnabledPref = (SwitchPreference) prefSet.findPreference(KEY_ENABLED);
-        mEnabledPref.setChecked((Settings.System.getInt(mResolver,
-                Settings.System.ENABLE_ACTIVE_DISPLAY, 0) == 1));
+        mEnabledPref.setChecked((settings.getInt(Settings.System.ENABLE_ACTIVE_DISPLAY, 0) == 1));
         mEnabledPref.setOnPreferenceChangeListener(this);
 
         mBypassPref = (CheckBoxPreference) prefSet.findPreference(KEY_BYPASS_CONTENT);
@@ -109,23 +125,21 @@ public class ActiveDisplaySettings extends SettingsPreferenceFragment implements
             prefSet.removePreference(mProximityThreshold);
             prefSet.removePreference(mTurnOffModePref);
         } else {
-            mBypassPref.setChecked((Settings.System.getInt(mResolver,
-                Settings.System.ACTIVE_DISPLAY_BYPASS, 1) != 0));
+            mBypassPref.setChecked((settings.getInt(
+                    Settings.System.ACTIVE_DISPLAY_BYPASS, 1) != 0));
 
-            int mode = Settings.System.getInt(mResolver,
-                    Settings.System.ACTIVE_DISPLAY_POCKET_MODE, 0);
+            int mode = settings.getInt(Settings.System.ACTIVE_DISPLAY_POCKET_MODE, 0);
             mPocketModePref.setValue(String.valueOf(mode));
             mPocketModePref.setSummary(mPocketModePref.getEntry());
             mPocketModePref.setOnPreferenceChangeListener(this);
 
-            long threshold = Settings.System.getLong(mResolver,
-                Settings.System.ACTIVE_DISPLAY_THRESHOLD, 5000L);
+            long threshold = settings.getLong(Settings.System.ACTIVE_DISPLAY_THRESHOLD, 5000L);
             mProximityThreshold.setValue(String.valueOf(threshold));
             mProximityThreshold.setSummary(mProximityThreshold.getEntry());
             mProximityThreshold.setOnPreferenceChangeListener(this);
 
-            mTurnOffModePref.setChecked((Settings.System.getInt(mResolver,
-                Settings.System.ACTIVE_DISPLAY_TURNOFF_MODE, 0) == 1));
+            mTurnOffModePref.setChecked((settings.getInt(
+                    Settings.System.ACTIVE_DISPLAY_TURNOFF_MODE, 0) == 1));
         }
 
         mSunlightModePref = (CheckBoxPreference) prefSet.findPreference(KEY_SUNLIGHT_MODE);
@@ -133,38 +147,38 @@ public class ActiveDisplaySettings extends SettingsPreferenceFragment implements
         if (!DeviceUtils.deviceSupportsLightSensor(mContext)) {
             prefSet.removePreference(mSunlightModePref);
         } else {
-            mSunlightModePref.setChecked((Settings.System.getInt(mResolver,
-                Settings.System.ACTIVE_DISPLAY_SUNLIGHT_MODE, 0) == 1));
+            mSunlightModePref.setChecked((settings.getInt(
+                    Settings.System.ACTIVE_DISPLAY_SUNLIGHT_MODE, 0) == 1));
         }
 
         mRedisplayPref = (ListPreference) prefSet.findPreference(KEY_REDISPLAY);
-        long timeout = Settings.System.getLong(mResolver,
-                Settings.System.ACTIVE_DISPLAY_REDISPLAY, 0);
+        long timeout = settings.getLong(Settings.System.ACTIVE_DISPLAY_REDISPLAY, 0);
         mRedisplayPref.setValue(String.valueOf(timeout));
         mRedisplayPref.setSummary(mRedisplayPref.getEntry());
         mRedisplayPref.setOnPreferenceChangeListener(this);
 
         mAnnoyingNotification = (SeekBarPreference) prefSet.findPreference(KEY_ANNOYING);
-        mAnnoyingNotification.setValue(Settings.System.getInt(mResolver,
-                Settings.System.ACTIVE_DISPLAY_ANNOYING, 0));
+        mAnnoyingNotification.setValue(settings.getInt(Settings.System.ACTIVE_DISPLAY_ANNOYING, 0));
         mAnnoyingNotification.setOnPreferenceChangeListener(this);
 
         mExcludedAppsPref = (AppMultiSelectListPreference) prefSet.findPreference(KEY_EXCLUDED_APPS);
-        Set<String> excludedApps = getExcludedApps();
+        Set<String> excludedApps = splitApps(
+                settings.getString(Settings.System.ACTIVE_DISPLAY_EXCLUDED_APPS));
         if (excludedApps != null) {
             mExcludedAppsPref.setValues(excludedApps);
         }
         mExcludedAppsPref.setOnPreferenceChangeListener(this);
 
         mPrivacyAppsPref = (AppMultiSelectListPreference) prefSet.findPreference(KEY_PRIVACY_APPS);
-        Set<String> privacyApps = getPrivacyApps();
+        Set<String> privacyApps = splitApps(
+                settings.getString(Settings.System.ACTIVE_DISPLAY_PRIVACY_APPS));
         if (privacyApps != null) {
             mPrivacyAppsPref.setValues(privacyApps);
         }
         mPrivacyAppsPref.setOnPreferenceChangeListener(this);
 
         mShowAmPmPref = (CheckBoxPreference) prefSet.findPreference(KEY_SHOW_AMPM);
-        mShowAmPmPref.setChecked((Settings.System.getInt(mResolver,
+        mShowAmPmPref.setChecked((settings.getInt(
                 Settings.System.ACTIVE_DISPLAY_SHOW_AMPM, 0) == 1));
 
         PowerManager pm = (PowerManager) mContext.getSystemService(Context.POWER_SERVICE);
@@ -172,18 +186,19 @@ public class ActiveDisplaySettings extends SettingsPreferenceFragment implements
         mMaximumBacklight = pm.getMaximumScreenBrightnessSetting();
 
         mBrightnessLevel = (SeekBarPreference) prefSet.findPreference(KEY_BRIGHTNESS);
-        int brightness = Settings.System.getInt(mResolver,
+        int brightness = settings.getInt(
                 Settings.System.ACTIVE_DISPLAY_BRIGHTNESS, mMaximumBacklight);
         int realBrightness =  (int)(((float)brightness / (float)mMaximumBacklight) * 100);
         mBrightnessLevel.setValue(realBrightness);
         mBrightnessLevel.setOnPreferenceChangeListener(this); 
 
         mDisplayTimeout = (ListPreference) prefSet.findPreference(KEY_TIMEOUT);
-        timeout = Settings.System.getLong(mResolver,
-                Settings.System.ACTIVE_DISPLAY_TIMEOUT, 8000L);
+        timeout = settings.getLong(Settings.System.ACTIVE_DISPLAY_TIMEOUT, 8000L);
         mDisplayTimeout.setValue(String.valueOf(timeout));
         mDisplayTimeout.setSummary(mDisplayTimeout.getEntry());
         mDisplayTimeout.setOnPreferenceChangeListener(this);
+        // read once, no need to keep watching
+        settings.close();
     }
 
     @Override
@@ -271,13 +286,11 @@ public class ActiveDisplaySettings extends SettingsPreferenceFragment implements
         return true;
     }
 
-    private Set<String> getExcludedApps() {
-        String excluded = Settings.System.getString(mResolver,
-                Settings.System.ACTIVE_DISPLAY_EXCLUDED_APPS);
-        if (TextUtils.isEmpty(excluded)) {
+    private static Set<String> splitApps(String apps) {
+        if (TextUtils.isEmpty(apps)) {
             return null;
         }
-        return new HashSet<String>(Arrays.asList(excluded.split("\\|")));
+        return new HashSet<String>(Arrays.asList(apps.split("\\|")));
     }
 
     private void storeExcludedApps(Set<String> values) {
@@ -292,15 +305,6 @@ public class ActiveDisplaySettings extends SettingsPreferenceFragment implements
                 Settings.System.ACTIVE_DISPLAY_EXCLUDED_APPS, builder.toString());
     }
 
-    private Set<String> getPrivacyApps() {
-        String privacies = Settings.System.getString(mResolver,
-                Settings.System.ACTIVE_DISPLAY_PRIVACY_APPS);
-        if (TextUtils.isEmpty(privacies)) {
-            return null;
-        }
-        return new HashSet<String>(Arrays.asList(privacies.split("\\|")));
-    }
-
     private void storePrivacyApps(Set<String> values) {
         StringBuilder builder = new StringBuilder();
         String delimiter = "";
@@ -49,6 +49,8 @@ import com.android.internal.util.slim.DeviceUtils;
 import com.oct.tentacles.preference.SettingsPreferenceFragment;
 import com.oct.tentacles.R;
 import com.oct.tentacles.Utils;
+import com.oct.tentacles.util.SettingsSnapshot;
+import com.oct.tentacles.util.SettingsTransaction;
 
 import com.android.internal.widget.LockPatternUtils;
 
@@ -99,12 +101,31 @@ public class LockscreenStyle extends SettingsPreferenceFragment
     private static final int DLG_RESET = 0;
     private static final int REQUEST_PICK_LOCK_ICON = 100;
 
+    private SettingsSnapshot mSettings;
+
     @Override
     public void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
+        // fetch in the background while the preferences inflate
+        mSettings = new SettingsSnapshot(getContentResolver(), SettingsTransaction.SECURE,
+                Settings.Secure.LOCKSCREEN_COLORIZE_LOCK,
+                Settings.Secure.LOCKSCREEN_FRAME_COLOR,
+                Settings.Secure.LOCKSCREEN_LOCK_COLOR,
+                Settings.Secure.LOCKSCREEN_DOTS_COLOR,
+                Settings.Secure.LOCKSCREEN_TARGETS_COLOR,
+                Settings.Secure.LOCKSCREEN_MISC_COLOR,
+                Settings.Secure.LOCK_BEFORE_UNLOCK,
+                Settings.Secure.LOCK_SHAKE_TEMP_SECURE,
+                Settings.Secure.LOCKSCREEN_LOCK_ICON).prefetch();
         createCustomView();
     }
 
+    @Override
+    public void onDestroy() {
+        super.onDestroy();
+        mSettings.close();
+    }
+
     private PreferenceScreen createCustomView() {
         mCheckPreferences = false;
         PreferenceScreen prefSet = getPreferenceScreen();
@@ -126,15 +147,14 @@ public class LockscreenStyle extends SettingsPreferenceFragment
 
         mColorizeCustom = (CheckBoxPreference)
                 findPreference(KEY_LOCKSCREEN_COLORIZE_ICON);
-        mColorizeCustom.setChecked(Settings.Secure.getInt(getContentResolver(),
-                Settings.Secure.LOCKSCREEN_COLORIZE_LOCK, 0) == 1);
+        mColorizeCustom.setChecked(
+                mSettings.getInt(Settings.Secure.LOCKSCREEN_COLORIZE_LOCK, 0) == 1);
         mColorizeCustom.setOnPreferenceChangeListener(this);
 
         mFrameColor = (ColorPickerPreference)
                 findPreference(KEY_LOCKSCREEN_FRAME_COLOR);
         mFrameColor.setOnPreferenceChangeListener(this);
-        int frameColor = Settings.Secure.getInt(getContentResolver(),
-                    Settings.Secure.LOCKSCREEN_FRAME_COLOR, -2);
+        int frameColor = mSettings.getInt(Settings.Secure.LOCKSCREEN_FRAME_COLOR, -2);
         setPreferenceSummary(mFrameColor,
                 getResources().getString(
                 R.string.lockscreen_frame_color_summary), frameColor);
@@ -143,8 +163,7 @@ public class LockscreenStyle extends SettingsPreferenceFragment
         mLockColor = (ColorPickerPreference)
                 findPreference(KEY_LOCKSCREEN_LOCK_COLOR);
         mLockColor.setOnPreferenceChangeListener(this);
-        int lockColor = Settings.Secure.getInt(getContentResolver(),
-                    Settings.Secure.LOCKSCREEN_LOCK_COLOR, -2);
+        int lockColor = mSettings.getInt(Settings.Secure.LOCKSCREEN_LOCK_COLOR, -2);
         setPreferenceSummary(mLockColor,
                 getResources().getString(
                 R.string.lockscreen_lock_color_summary), lockColor);
@@ -153,8 +172,7 @@ public class LockscreenStyle extends SettingsPreferenceFragment
         mDotsColor = (ColorPickerPreference)
                 findPreference(KEY_LOCKSCREEN_DOTS_COLOR);
         mDotsColor.setOnPreferenceChangeListener(this);
-        int dotsColor = Settings.Secure.getInt(getContentResolver(),
-                    Settings.Secure.LOCKSCREEN_DOTS_COLOR, -2);
+        int dotsColor = mSettings.getInt(Settings.Secure.LOCKSCREEN_DOTS_COLOR, -2);
         setPreferenceSummary(mDotsColor,
                 getResources().getString(
                 R.string.lockscreen_dots_color_summary), dotsColor);
@@ -163,8 +181,7 @@ public class LockscreenStyle extends SettingsPreferenceFragment
         mTargetsColor = (ColorPickerPreference)
                 findPreference(KEY_LOCKSCREEN_TARGETS_COLOR);
         mTargetsColor.setOnPreferenceChangeListener(this);
-        int targetColor = Settings.Secure.getInt(getContentResolver(),
-                    Settings.Secure.LOCKSCREEN_TARGETS_COLOR, -2);
+        int targetColor = mSettings.getInt(Settings.Secure.LOCKSCREEN_TARGETS_COLOR, -2);
         setPreferenceSummary(mTargetsColor,
                 getResources().getString(
                 R.string.lockscreen_targets_color_summary), targetColor);
@@ -173,8 +190,7 @@ public class LockscreenStyle extends SettingsPreferenceFragment
         mMiscColor = (ColorPickerPreference)
                 findPreference(KEY_LOCKSCREEN_MISC_COLOR);
         mMiscColor.setOnPreferenceChangeListener(this);
-        int miscColor = Settings.Secure.getInt(getContentResolver(),
-                    Settings.Secure.LOCKSCREEN_MISC_COLOR, -2);
+        int miscColor = mSettings.getInt(Settings.Secure.LOCKSCREEN_MISC_COLOR, -2);
         setPreferenceSummary(mMiscColor,
                 getResources().getString(
                 R.string.lockscreen_misc_color_summary), miscColor);
@@ -182,11 +198,9 @@ public class LockscreenStyle extends SettingsPreferenceFragment
 
         // No lock-slider is available
         boolean dotsDisabled = new LockPatternUtils(getActivity()).isSecure()
-            && Settings.Secure.getInt(getContentResolver(),
-            Settings.Secure.LOCK_BEFORE_UNLOCK, 0) == 0
-            && Settings.Secure.getInt(getContentResolver(),
-                    Settings.Secure.LOCK_SHAKE_TEMP_SECURE, 0) == 0;
-        boolean imageExists = Settings.Secure.getString(getContentResolver(),
+            && mSettings.getInt(Settings.Secure.LOCK_BEFORE_UNLOCK, 0) == 0
+            && mSettings.getInt(Settings.Secure.LOCK_SHAKE_TEMP_SECURE, 0) == 0;
+        boolean imageExists = mSettings.getString(
                 Settings.Secure.LOCKSCREEN_LOCK_ICON) != null;
         mDotsColor.setEnabled(!dotsDisabled);
         mLockIcon.setEnabled(!dotsDisabled);
@@ -447,16 +461,15 @@ public class LockscreenStyle extends SettingsPreferenceFragment
                     .setPositiveButton(R.string.ok,
                         new DialogInterface.OnClickListener() {
                         public void onClick(DialogInterface dialog, int which) {
-                            Settings.Secure.putInt(getActivity().getContentResolver(),
-                                    Settings.Secure.LOCKSCREEN_FRAME_COLOR, -2);
-                            Settings.Secure.putInt(getActivity().getContentResolver(),
-                                    Settings.Secure.LOCKSCREEN_LOCK_COLOR, -2);
-                            Settings.Secure.putInt(getActivity().getContentResolver(),
-                                    Settings.Secure.LOCKSCREEN_DOTS_COLOR, -2);
-                            Settings.Secure.putInt(getActivity().getContentResolver(),
-                                    Settings.Secure.LOCKSCREEN_TARGETS_COLOR, -2);
-                            Settings.Secure.putInt(getActivity().getContentResolver(),
-                                    Settings.Secure.LOCKSCREEN_MISC_COLOR, -2);
+                            final int secure = SettingsTransaction.SECURE;
+                            new SettingsTransaction(getActivity().getContentResolver())
+                                    .putInt(secure, Settings.Secure.LOCKSCREEN_FRAME_COLOR, -2)
+                                    .putInt(secure, Settings.Secure.LOCKSCREEN_LOCK_COLOR, -2)
+                                    .putInt(secure, Settings.Secure.LOCKSCREEN_DOTS_COLOR, -2)
+                                    .putInt(secure, Settings.Secure.LOCKSCREEN_TARGETS_COLOR, -2)
+                                    .putInt(secure, Settings.Secure.LOCKSCREEN_MISC_COLOR, -2)
+                                    .commit();
+                            getOwner().mSettings.invalidate();
                             getOwner().createCustomView();
                         }
                     })
@@ -36,6 +36,7 @@ import android.view.MenuItem;
 
 import com.oct.tentacles.R;
 import com.oct.tentacles.preference.SettingsPreferenceFragment;
+import com.oct.tentacles.util.SettingsTransaction;
 import com.oct.tentacles.widgets.SeekBarPreference;
 
 import net.margaritov.preference.colorpicker.ColorPickerPreference;
@@ -141,15 +142,12 @@ public class PieStyleSettings extends SettingsPreferenceFragment implements
     }
 
     private void resetToDefault() {
-        Settings.System.putInt(getActivity().getContentResolver(),
-                Settings.System.PIE_BACKGROUND_COLOR, -2);
-        Settings.System.putInt(getActivity().getContentResolver(),
-                Settings.System.PIE_SNAP_COLOR, -2);
-        Settings.System.putInt(getActivity().getContentResolver(),
-                Settings.System.PIE_TEXT_COLOR, -2);
-
-        Settings.System.putFloat(getActivity().getContentResolver(),
-                Settings.System.PIE_BACKGROUND_ALPHA, 0.3f);
+        new SettingsTransaction(getActivity().getContentResolver())
+                .putInt(SettingsTransaction.SYSTEM, Settings.System.PIE_BACKGROUND_COLOR, -2)
+                .putInt(SettingsTransaction.SYSTEM, Settings.System.PIE_SNAP_COLOR, -2)
+                .putInt(SettingsTransaction.SYSTEM, Settings.System.PIE_TEXT_COLOR, -2)
+                .putFloat(SettingsTransaction.SYSTEM, Settings.System.PIE_BACKGROUND_ALPHA, 0.3f)
+                .commit();
     }
 
     @Override
@@ -51,11 +51,13 @@ import com.android.internal.util.cm.QSConstants;
 import com.oct.tentacles.R;
 import com.oct.tentacles.Utils;
 import com.oct.tentacles.fragments.sb.QuickSettingsUtil.TileInfo;
+import com.oct.tentacles.fragments.sb.QuickSettingsUtil.TileLayout;
 
 import java.text.Collator;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Comparator;
+import java.util.HashMap;
 
 public class QuickSettingsTiles extends Fragment {
 
@@ -75,6 +77,12 @@ public class QuickSettingsTiles extends Fragment {
     private LayoutInflater mInflater;
     private Resources mSystemUiResources;
     private TileAdapter mTileAdapter;
+    private TileLayout mLayout;
+    // ids of the tiles on screen, in view order; the layout may hold more
+    private final ArrayList<String> mShownTiles = new ArrayList<String>();
+    // tile views by id, kept across regenerations
+    private final HashMap<String, View> mTileViews = new HashMap<String, View>();
+    private View mAddView;
     private boolean mConfigRibbon;
 
     private int mTileTextSize;
@@ -132,7 +140,7 @@ public class QuickSettingsTiles extends Fragment {
             mTileTextSize = mDragView.getTileTextSize(columnCount);
             mTileTextPadding = mDragView.getTileTextPadding(columnCount);
         }
-        mTileAdapter = new TileAdapter(getActivity(), mConfigRibbon);
+        mTileAdapter = new TileAdapter(getActivity());
         return mDragView;
     }
 
@@ -155,86 +163,85 @@ public class QuickSettingsTiles extends Fragment {
 
     void genTiles() {
         mDragView.removeAllViews();
-        ArrayList<String> tiles = QuickSettingsUtil.getTileListFromString(
-                QuickSettingsUtil.getCurrentTiles(getActivity(), mConfigRibbon));
-        for (String tileindex : tiles) {
+        mShownTiles.clear();
+        mLayout = QuickSettingsUtil.loadLayout(getActivity(), mConfigRibbon);
+        mTileAdapter.setLayout(mLayout);
+        for (String tileindex : mLayout.getIds()) {
             QuickSettingsUtil.TileInfo tile = QuickSettingsUtil.TILES.get(tileindex);
             if (tile != null) {
-                addTile(tile.getTitleResId(), tile.getIcon(), 0, false);
+                addTile(tile, false);
             }
         }
-        addTile(R.string.add, null, R.drawable.ic_menu_add, false);
+        if (mAddView == null) {
+            mAddView = inflateTile(R.string.add,
+                    getResources().getDrawable(R.drawable.ic_menu_add));
+        }
+        mDragView.addView(mAddView);
     }
 
     /**
-     * Adds a tile to the dragview
-     * @param titleId - string id for tile text in systemui
-     * @param iconSysId - resource id for icon in systemui
-     * @param iconRegId - resource id for icon in local package
+     * Adds a tile to the dragview, reusing its view if it was shown before
+     * @param tile - the tile to add
      * @param newTile - whether a new tile is being added by user
      */
-    void addTile(int titleId, String iconSysId, int iconRegId, boolean newTile) {
-        View tileView = null;
-        if (iconRegId != 0) {
-            tileView = (View) mInflater.inflate(R.layout.quick_settings_tile_generic, null, false);
-            final TextView name = (TextView) tileView.findViewById(R.id.text);
-            final ImageView iv = (ImageView) tileView.findViewById(R.id.image);
-            name.setText(titleId);
-            name.setTextSize(TypedValue.COMPLEX_UNIT_PX, mTileTextSize);
-            name.setPadding(0, mTileTextPadding, 0, 0);
-            iv.setImageDrawable(getResources().getDrawable(iconRegId));
-        } else {
-            final boolean isUserTile = titleId == QuickSettingsUtil.TILES.get(QSConstants.TILE_USER).getTitleResId();
-            if (mSystemUiResources != null && iconSysId != null) {
-                int resId = mSystemUiResources.getIdentifier(iconSysId, null, null);
-                if (resId > 0) {
-                    try {
-                        Drawable d = mSystemUiResources.getDrawable(resId);
-                        tileView = null;
-                        if (isUserTile) {
-                            tileView = (View) mInflater.inflate(R.layout.quick_settings_tile_user, null, false);
-                            ImageView iv = (ImageView) tileView.findViewById(R.id.user_imageview);
-                            TextView tv = (TextView) tileView.findViewById(R.id.tile_textview);
-                            tv.setText(titleId);
-                            tv.setTextSize(TypedValue.COMPLEX_UNIT_PX, mTileTextSize);
-                            iv.setImageDrawable(d);
-                        } else {
-                            tileView = (View) mInflater.inflate(
-                                    R.layout.quick_settings_tile_generic, null, false);
-                            final TextView name = (TextView) tileView.findViewById(R.id.text);
-                            final ImageView iv = (ImageView) tileView.findViewById(R.id.image);
-                            name.setText(titleId);
-                            name.setTextSize(TypedValue.COMPLEX_UNIT_PX, mTileTextSize);
-                            name.setPadding(0, mTileTextPadding, 0, 0);
-                            iv.setImageDrawable(d);
-                        }
-                    } catch (Exception e) {
-                        e.printStackTrace();
-                    }
-                }
+    void addTile(TileInfo tile, boolean newTile) {
+        View tileView = mTileViews.get(tile.getId());
+        if (tileView == null) {
+            tileView = createTileView(tile);
+            if (tileView == null) {
+                return;
             }
+            mTileViews.put(tile.getId(), tileView);
         }
-        if (tileView != null) {
-            if (titleId == QuickSettingsUtil.TILES.get(
-                        QSConstants.TILE_SCREENTIMEOUT).getTitleResId()
-                || titleId == QuickSettingsUtil.TILES.get(
-                            QSConstants.TILE_RINGER).getTitleResId()
-                || titleId == QuickSettingsUtil.TILES.get(
-                            QSConstants.TILE_SCREENSHOT).getTitleResId()
-                || titleId == QuickSettingsUtil.TILES.get(
-                            QSConstants.TILE_MUSIC).getTitleResId()
-                || QuickSettingsUtil.isTileAvailable(QSConstants.TILE_NETWORKMODE)
-                        && titleId == QuickSettingsUtil.TILES.get(
-                            QSConstants.TILE_NETWORKMODE).getTitleResId()) {
-
-                ImageView settings =  (ImageView) tileView.findViewById(R.id.settings);
-                if (settings != null) {
-                    settings.setVisibility(View.VISIBLE);
-                }
+        tileView.clearAnimation();
+        mDragView.addView(tileView, newTile
+                ? mDragView.getChildCount() - 1 : mDragView.getChildCount());
+        mShownTiles.add(tile.getId());
+    }
+
+    private View createTileView(TileInfo tile) {
+        if (mSystemUiResources == null) {
+            return null;
+        }
+        int resId = tile.getIconResId(mSystemUiResources);
+        if (resId <= 0) {
+            return null;
+        }
+        View tileView;
+        try {
+            Drawable d = mSystemUiResources.getDrawable(resId);
+            if (QSConstants.TILE_USER.equals(tile.getId())) {
+                tileView = (View) mInflater.inflate(R.layout.quick_settings_tile_user, null, false);
+                ImageView iv = (ImageView) tileView.findViewById(R.id.user_imageview);
+                TextView tv = (TextView) tileView.findViewById(R.id.tile_textview);
+                tv.setText(tile.getTitleResId());
+                tv.setTextSize(TypedValue.COMPLEX_UNIT_PX, mTileTextSize);
+                iv.setImageDrawable(d);
+            } else {
+                tileView = inflateTile(tile.getTitleResId(), d);
             }
-            mDragView.addView(tileView, newTile
-                    ? mDragView.getChildCount() - 1 : mDragView.getChildCount());
+        } catch (Exception e) {
+            e.printStackTrace();
+            return null;
         }
+        if (tile.hasSettings()) {
+            ImageView settings = (ImageView) tileView.findViewById(R.id.settings);
+            if (settings != null) {
+                settings.setVisibility(View.VISIBLE);
+            }
+        }
+        return tileView;
+    }
+
+    private View inflateTile(int titleId, Drawable icon) {
+        View tileView = (View) mInflater.inflate(R.layout.quick_settings_tile_generic, null, false);
+        final TextView name = (TextView) tileView.findViewById(R.id.text);
+        final ImageView iv = (ImageView) tileView.findViewById(R.id.image);
+        name.setText(titleId);
+        name.setTextSize(TypedValue.COMPLEX_UNIT_PX, mTileTextSize);
+        name.setPadding(0, mTileTextPadding, 0, 0);
+        iv.setImageDrawable(icon);
+        return tileView;
     }
 
     @Override
@@ -243,45 +250,47 @@ public class QuickSettingsTiles extends Fragment {
         genTiles();
         mDragView.setOnRearrangeListener(new DraggableGridView.OnRearrangeListener() {
             public void onRearrange(int oldIndex, int newIndex) {
-                ArrayList<String> tiles = QuickSettingsUtil.getTileListFromString(
-                        QuickSettingsUtil.getCurrentTiles(getActivity(), mConfigRibbon));
-                String oldTile = tiles.get(oldIndex);
-                tiles.remove(oldIndex);
-                tiles.add(newIndex, oldTile);
-                QuickSettingsUtil.saveCurrentTiles(getActivity(),
-                        QuickSettingsUtil.getTileStringFromList(tiles), mConfigRibbon);
+                String tile = mShownTiles.remove(oldIndex);
+                mShownTiles.add(newIndex, tile);
+                // the layout may hold tiles that aren't shown, so place it
+                // in front of the tile it now precedes on screen
+                mLayout.remove(mLayout.indexOf(tile));
+                mLayout.add(newIndex + 1 < mShownTiles.size()
+                        ? mLayout.indexOf(mShownTiles.get(newIndex + 1))
+                        : mLayout.size(), tile);
+                // dropping a tile back where it was writes nothing
+                QuickSettingsUtil.saveLayout(getActivity(), mLayout, mConfigRibbon);
             }
             @Override
             public void onDelete(int index) {
-                ArrayList<String> tiles = QuickSettingsUtil.getTileListFromString(
-                        QuickSettingsUtil.getCurrentTiles(getActivity(), mConfigRibbon));
-                tiles.remove(index);
-                QuickSettingsUtil.saveCurrentTiles(getActivity(),
-                QuickSettingsUtil.getTileStringFromList(tiles), mConfigRibbon);
+                String tile = mShownTiles.remove(index);
+                // the dragged view was recolored for the drop, start fresh
+                mTileViews.remove(tile);
+                mLayout.remove(mLayout.indexOf(tile));
+                QuickSettingsUtil.saveLayout(getActivity(), mLayout, mConfigRibbon);
             }
         });
         mDragView.setOnItemClickListener(new OnItemClickListener() {
             @Override
             public void onItemClick(AdapterView<?> arg0, View arg1, int arg2, long arg3) {
-                ArrayList<String> tiles = QuickSettingsUtil.getTileListFromString(
-                        QuickSettingsUtil.getCurrentTiles(getActivity(), mConfigRibbon));
                 if (arg2 != mDragView.getChildCount() - 1) {
                     if (arg2 == -1) {
                         return;
                     }
-                    if (tiles.get(arg2).equals(QSConstants.TILE_SCREENTIMEOUT)) {
+                    String tile = mShownTiles.get(arg2);
+                    if (tile.equals(QSConstants.TILE_SCREENTIMEOUT)) {
                         showDialogInner(DLG_SCREENTIMEOUT);
                     }
-                    if (tiles.get(arg2).equals(QSConstants.TILE_NETWORKMODE)) {
+                    if (tile.equals(QSConstants.TILE_NETWORKMODE)) {
                         showDialogInner(DLG_NETWORK_MODE);
                     }
-                    if (tiles.get(arg2).equals(QSConstants.TILE_RINGER)) {
+                    if (tile.equals(QSConstants.TILE_RINGER)) {
                         showDialogInner(DLG_RINGER);
                     }
-                    if (tiles.get(arg2).equals(QSConstants.TILE_SCREENSHOT)) {
+                    if (tile.equals(QSConstants.TILE_SCREENSHOT)) {
                         showDialogInner(DLG_SCREENSHOT_DELAY);
                     }
-                    if (tiles.get(arg2).equals(QSConstants.TILE_MUSIC)) {
+                    if (tile.equals(QSConstants.TILE_MUSIC)) {
                         showDialogInner(DLG_MUSIC);
                     }
                     return;
@@ -290,18 +299,12 @@ public class QuickSettingsTiles extends Fragment {
                 builder.setTitle(R.string.tile_choose_title)
                 .setAdapter(mTileAdapter, new DialogInterface.OnClickListener() {
                     public void onClick(DialogInterface dialog, final int position) {
-                        new Thread(new Runnable() {
-                            @Override
-                            public void run() {
-                                ArrayList<String> curr = QuickSettingsUtil.getTileListFromString(
-                                        QuickSettingsUtil.getCurrentTiles(getActivity(), mConfigRibbon));
-                                curr.add(mTileAdapter.getTileId(position));
-                                QuickSettingsUtil.saveCurrentTiles(getActivity(),
-                                        QuickSettingsUtil.getTileStringFromList(curr), mConfigRibbon);
-                            }
-                        }).start();
-                        TileInfo info = QuickSettingsUtil.TILES.get(mTileAdapter.getTileId(position));
-                        addTile(info.getTitleResId(), info.getIcon(), 0, true);
+                        String id = mTileAdapter.getTileId(position);
+                        if (!mLayout.add(id)) {
+                            return;
+                        }
+                        QuickSettingsUtil.saveLayout(getActivity(), mLayout, mConfigRibbon);
+                        addTile(QuickSettingsUtil.TILES.get(id), true);
                     }
                 });
                 builder.create().show();
@@ -587,12 +590,11 @@ public class QuickSettingsTiles extends Fragment {
         }
 
         private Entry[] mTiles;
-        private boolean mIsRibbon;
+        private TileLayout mLayout;
 
-        public TileAdapter(Context context, boolean isRibbon) {
+        public TileAdapter(Context context) {
             super(context, android.R.layout.simple_list_item_1);
             mTiles = new Entry[getCount()];
-            mIsRibbon = isRibbon;
             loadItems(context.getResources());
             sortItems();
         }
@@ -637,11 +639,13 @@ public class QuickSettingsTiles extends Fragment {
             return mTiles[position].tile.getId();
         }
 
+        public void setLayout(TileLayout layout) {
+            mLayout = layout;
+        }
+
         @Override
         public boolean isEnabled(int position) {
-            String usedTiles = QuickSettingsUtil.getCurrentTiles(
-                    getContext(), mIsRibbon);
-            return !(usedTiles.contains(mTiles[position].tile.getId()));
+            return mLayout == null || !mLayout.contains(mTiles[position].tile.getId());
         }
     }
 }
@@ -56,6 +56,7 @@ import static com.android.internal.util.cm.QSConstants.TILE_BATTERYSAVER;
 
 import android.content.ContentResolver;
 import android.content.Context;
+import android.content.res.Resources;
 import android.provider.Settings;
 import android.text.TextUtils;
 import android.util.Log;
@@ -65,9 +66,9 @@ import com.android.internal.util.cm.QSUtils;
 import com.oct.tentacles.R;
 
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 public class QuickSettingsUtil {
@@ -185,6 +186,12 @@ public class QuickSettingsUtil {
         registerTile(new QuickSettingsUtil.TileInfo(
                 TILE_BATTERYSAVER, R.string.quick_settings_battery_saver_label,
                 "com.android.systemui:drawable/ic_qs_battery_saver_on"));
+
+        // tiles with a long press dialog in the editor
+        for (String id : new String[] { TILE_SCREENTIMEOUT, TILE_RINGER,
+                TILE_SCREENSHOT, TILE_MUSIC, TILE_NETWORKMODE }) {
+            ENABLED_TILES.get(id).mHasSettings = true;
+        }
     }
 
     private static void registerTile(QuickSettingsUtil.TileInfo info) {
@@ -319,6 +326,29 @@ public class QuickSettingsUtil {
                          : Settings.System.QUICK_SETTINGS_TILES, tiles);
     }
 
+    public static TileLayout loadLayout(Context context, boolean isRibbon) {
+        String tiles = getCurrentTiles(context, isRibbon);
+        TileLayout layout = new TileLayout(tiles);
+        layout.mSaved = tiles;
+        return layout;
+    }
+
+    /**
+     * Writes layout back unless its order is still what was loaded or
+     * last saved.
+     *
+     * @return whether anything was written
+     */
+    public static boolean saveLayout(Context context, TileLayout layout, boolean isRibbon) {
+        if (!layout.isModified()) {
+            return false;
+        }
+        String tiles = layout.toString();
+        saveCurrentTiles(context, tiles, isRibbon);
+        layout.mSaved = tiles;
+        return true;
+    }
+
     public static void resetTiles(Context context, boolean isRibbon) {
         String defaultTiles = getDefaultTiles(context);
         Settings.System.putString(context.getContentResolver(),
@@ -327,43 +357,49 @@ public class QuickSettingsUtil {
     }
 
     public static String mergeInNewTileString(String oldString, String newString) {
-        ArrayList<String> oldList = getTileListFromString(oldString);
-        ArrayList<String> newList = getTileListFromString(newString);
-        ArrayList<String> mergedList = new ArrayList<String>();
+        TileLayout oldLayout = new TileLayout(oldString);
+        TileLayout newLayout = new TileLayout(newString);
+        TileLayout merged = new TileLayout("");
 
         // add any items from oldlist that are in new list
-        for (String tile : oldList) {
-            if (newList.contains(tile)) {
-                mergedList.add(tile);
+        for (String tile : oldLayout.getIds()) {
+            if (newLayout.contains(tile)) {
+                merged.add(tile);
             }
         }
 
         // append anything in newlist that isn't already in the merged list to
         // the end of the list
-        for (String tile : newList) {
-            if (!mergedList.contains(tile)) {
-                mergedList.add(tile);
-            }
+        for (String tile : newLayout.getIds()) {
+            merged.add(tile);
         }
 
         // return merged list
-        return getTileStringFromList(mergedList);
+        return merged.toString();
     }
 
     public static ArrayList<String> getTileListFromString(String tiles) {
-        return new ArrayList<String>(Arrays.asList(tiles.split("\\|")));
+        return split(tiles);
     }
 
     public static String getTileStringFromList(ArrayList<String> tiles) {
         if (tiles == null || tiles.size() <= 0) {
             return "";
-        } else {
-            String s = tiles.get(0);
-            for (int i = 1; i < tiles.size(); i++) {
-                s += TILE_DELIMITER + tiles.get(i);
-            }
-            return s;
         }
+        return TextUtils.join(TILE_DELIMITER, tiles);
+    }
+
+    // plain indexOf split, String.split compiles a regex on every call
+    private static ArrayList<String> split(String tiles) {
+        ArrayList<String> list = new ArrayList<String>();
+        int start = 0;
+        int end;
+        while ((end = tiles.indexOf(TILE_DELIMITER, start)) >= 0) {
+            list.add(tiles.substring(start, end));
+            start = end + TILE_DELIMITER.length();
+        }
+        list.add(tiles.substring(start));
+        return list;
     }
 
     public static String getDefaultTiles(Context context) {
@@ -371,10 +407,130 @@ public class QuickSettingsUtil {
         return TextUtils.join(TILE_DELIMITER, TILES_DEFAULT);
     }
 
+    /**
+     * Ordered tile ids with constant time membership and position lookup.
+     * The serialized form is cached until the order changes, and
+     * {@link QuickSettingsUtil#saveLayout} only writes when it differs
+     * from what was loaded. Not thread safe.
+     */
+    public static class TileLayout {
+        private final ArrayList<String> mIds = new ArrayList<String>();
+        // id -> position, rebuilt lazily after a change
+        private final HashMap<String, Integer> mPositions = new HashMap<String, Integer>();
+        private boolean mPositionsValid = true;
+        private String mSerialized;
+        private String mSaved;
+
+        public TileLayout(String tiles) {
+            for (String id : split(tiles)) {
+                // skip blanks and duplicates a hand edited setting may have
+                if (id.length() > 0 && !contains(id)) {
+                    mIds.add(id);
+                    mPositions.put(id, mIds.size() - 1);
+                }
+            }
+        }
+
+        public int size() {
+            return mIds.size();
+        }
+
+        public String get(int position) {
+            return mIds.get(position);
+        }
+
+        public List<String> getIds() {
+            return Collections.unmodifiableList(mIds);
+        }
+
+        public boolean contains(String id) {
+            return indexOf(id) >= 0;
+        }
+
+        /**
+         * @return the position of id or -1
+         */
+        public int indexOf(String id) {
+            if (!mPositionsValid) {
+                mPositions.clear();
+                for (int i = 0; i < mIds.size(); i++) {
+                    mPositions.put(mIds.get(i), i);
+                }
+                mPositionsValid = true;
+            }
+            Integer position = mPositions.get(id);
+            return position != null ? position : -1;
+        }
+
+        /**
+         * Appends id unless it is already there.
+         *
+         * @return whether it was added
+         */
+        public boolean add(String id) {
+            if (contains(id)) {
+                return false;
+            }
+            mIds.add(id);
+            // appending doesn't shift anything
+            mPositions.put(id, mIds.size() - 1);
+            mSerialized = null;
+            return true;
+        }
+
+        public String remove(int position) {
+            String id = mIds.remove(position);
+            changed();
+            return id;
+        }
+
+        /**
+         * Inserts id at position unless it is already there.
+         *
+         * @return whether it was added
+         */
+        public boolean add(int position, String id) {
+            if (contains(id)) {
+                return false;
+            }
+            mIds.add(position, id);
+            changed();
+            return true;
+        }
+
+        public void move(int from, int to) {
+            if (from == to) {
+                return;
+            }
+            mIds.add(to, mIds.remove(from));
+            changed();
+        }
+
+        public boolean isModified() {
+            return !toString().equals(mSaved);
+        }
+
+        private void changed() {
+            mPositionsValid = false;
+            mSerialized = null;
+        }
+
+        @Override
+        public String toString() {
+            if (mSerialized == null) {
+                mSerialized = TextUtils.join(TILE_DELIMITER, mIds);
+            }
+            return mSerialized;
+        }
+    }
+
     public static class TileInfo {
         private String mId;
         private int mTitleResId;
         private String mIcon;
+        private boolean mHasSettings;
+        // resolved on first use, the SystemUI resources aren't around before
+        private int mIconResId = -1;
 
         public TileInfo(String id, int titleResId, String icon) {
             mId = id;
@@ -393,5 +549,23 @@ public class QuickSettingsUtil {
         public String getIcon() {
             return mIcon;
         }
+
+        /**
+         * @return the id of the icon in SystemUI, 0 if it has none
+         */
+        public int getIconResId(Resources systemUiResources) {
+            if (mIconResId == -1) {
+                mIconResId = mIcon != null
+                        ? systemUiResources.getIdentifier(mIcon, null, null) : 0;
+            }
+            return mIconResId;
+        }
+
+        /**
+         * @return whether the tile has settings of its own in the editor
+         */
+        public boolean hasSettings() {
+            return mHasSettings;
+        }
     }
 }
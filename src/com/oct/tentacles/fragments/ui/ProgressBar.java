@@ -37,6 +37,7 @@ import com.oct.tentacles.fragments.ui.SpecialSeekBarPreference;
 import com.oct.tentacles.preference.SettingsPreferenceFragment;
 import com.oct.tentacles.R;
 import com.oct.tentacles.Utils;
+import com.oct.tentacles.util.SettingsTransaction;
 
 import net.margaritov.preference.colorpicker.ColorPickerPreference;
 
@@ -174,16 +175,18 @@ public class ProgressBar extends SettingsPreferenceFragment implements
     }
 
     private void ProgressBarColorReset() {
-        Settings.System.putInt(getContentResolver(), Settings.System.PROGRESSBAR_MIRROR, 0);
-        Settings.System.putInt(getContentResolver(), Settings.System.PROGRESSBAR_REVERSE, 0);
-        Settings.System.putInt(getContentResolver(), Settings.System.PROGRESSBAR_SPEED, 4);
-        Settings.System.putInt(getContentResolver(), Settings.System.PROGRESSBAR_WIDTH, 4);
-        Settings.System.putInt(getContentResolver(), Settings.System.PROGRESSBAR_LENGTH, 10);
-        Settings.System.putInt(getContentResolver(), Settings.System.PROGRESSBAR_COUNT, 6);
-        Settings.System.putInt(getContentResolver(), Settings.System.PROGRESSBAR_COLOR_1, defaultColor);
-        Settings.System.putInt(getContentResolver(), Settings.System.PROGRESSBAR_COLOR_2, defaultColor);
-        Settings.System.putInt(getContentResolver(), Settings.System.PROGRESSBAR_COLOR_3, defaultColor);
-        Settings.System.putInt(getContentResolver(), Settings.System.PROGRESSBAR_COLOR_4, defaultColor);
+        SettingsTransaction tx = new SettingsTransaction(getContentResolver());
+        tx.putInt(SettingsTransaction.SYSTEM, Settings.System.PROGRESSBAR_MIRROR, 0);
+        tx.putInt(SettingsTransaction.SYSTEM, Settings.System.PROGRESSBAR_REVERSE, 0);
+        tx.putInt(SettingsTransaction.SYSTEM, Settings.System.PROGRESSBAR_SPEED, 4);
+        tx.putInt(SettingsTransaction.SYSTEM, Settings.System.PROGRESSBAR_WIDTH, 4);
+        tx.putInt(SettingsTransaction.SYSTEM, Settings.System.PROGRESSBAR_LENGTH, 10);
+        tx.putInt(SettingsTransaction.SYSTEM, Settings.System.PROGRESSBAR_COUNT, 6);
+        tx.putInt(SettingsTransaction.SYSTEM, Settings.System.PROGRESSBAR_COLOR_1, defaultColor);
+        tx.putInt(SettingsTransaction.SYSTEM, Settings.System.PROGRESSBAR_COLOR_2, defaultColor);
+        tx.putInt(SettingsTransaction.SYSTEM, Settings.System.PROGRESSBAR_COLOR_3, defaultColor);
+        tx.putInt(SettingsTransaction.SYSTEM, Settings.System.PROGRESSBAR_COLOR_4, defaultColor);
+        tx.commit();
 
         mprogressbar_mirror.setChecked(false);
         mprogressbar_reverse.setChecked(false);
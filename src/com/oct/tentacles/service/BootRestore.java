@@ -0,0 +1,316 @@
+package com.oct.tentacles.service;
+
+import com.oct.tentacles.fragments.DisplayColor;
+import com.oct.tentacles.fragments.DisplayGamma;
+import com.oct.tentacles.fragments.VibratorIntensity;
+import com.oct.tentacles.fragments.batterysaver.BatterySaverHelper;
+import com.oct.tentacles.fragments.batterysaver.CpuCurveService;
+import com.oct.tentacles.util.BatchResult;
+import com.oct.tentacles.util.CMDProcessorAOKP;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.SystemClock;
+import android.preference.PreferenceManager;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Puts every saved hardware setting back after boot.
+ *
+ * Settings register a {@link Restorable} with the backend they go through.
+ * HAL items are independent of each other and run in parallel, direct
+ * sysfs writes are cheap and run one after the other on a single thread,
+ * and su items are merged into one root script. Framework calls run inline.
+ * How long each item and the whole restore took is kept for diagnostics,
+ * see {@link #getLastReport(Context)}.
+ */
+public final class BootRestore {
+    private static final String TAG = "BootRestore";
+
+    public static final int BACKEND_HAL = 0;
+    public static final int BACKEND_SYSFS = 1;
+    public static final int BACKEND_SU = 2;
+    public static final int BACKEND_FRAMEWORK = 3;
+
+    private static final String[] BACKEND_NAMES = { "hal", "sysfs", "su", "framework" };
+
+    // stay clear of the broadcast timeout of the boot receiver
+    private static final long DEADLINE_MS = 8000;
+
+    private static final String PREF_REPORT = "boot_restore_report";
+
+    private static final ArrayList<Restorable> sItems = new ArrayList<Restorable>();
+
+    /**
+     * A setting that needs to be written again after boot.
+     */
+    public static abstract class Restorable {
+        private final String mName;
+        private final int mBackend;
+
+        protected Restorable(String name, int backend) {
+            mName = name;
+            mBackend = backend;
+        }
+
+        public String getName() {
+            return mName;
+        }
+
+        public int getBackend() {
+            return mBackend;
+        }
+
+        public boolean isSupported(Context context) {
+            return true;
+        }
+
+        /**
+         * Restores the setting, not called for {@link #BACKEND_SU} items.
+         */
+        public void restore(Context context) {
+        }
+
+        /**
+         * @return the commands of a {@link #BACKEND_SU} item, null or empty
+         *         if there is nothing to restore
+         */
+        public String[] getCommands(Context context) {
+            return null;
+        }
+    }
+
+    static {
+        register(new Restorable("vibrator_intensity", BACKEND_HAL) {
+            @Override
+            public boolean isSupported(Context context) {
+                return VibratorIntensity.isSupported();
+            }
+
+            @Override
+            public void restore(Context context) {
+                VibratorIntensity.restore(context);
+            }
+        });
+        register(new Restorable("display_color", BACKEND_HAL) {
+            @Override
+            public boolean isSupported(Context context) {
+                return DisplayColor.isSupported();
+            }
+
+            @Override
+            public void restore(Context context) {
+                DisplayColor.restore(context);
+            }
+        });
+        register(new Restorable("display_gamma", BACKEND_HAL) {
+            @Override
+            public boolean isSupported(Context context) {
+                return DisplayGamma.isSupported();
+            }
+
+            @Override
+            public void restore(Context context) {
+                DisplayGamma.restore(context);
+            }
+        });
+        register(new Restorable("battery_saver_schedule", BACKEND_FRAMEWORK) {
+            @Override
+            public void restore(Context context) {
+                BatterySaverHelper.scheduleService(context);
+            }
+        });
+        register(new Restorable("cpu_frequency_curve", BACKEND_FRAMEWORK) {
+            @Override
+            public void restore(Context context) {
+                CpuCurveService.update(context);
+            }
+        });
+        // button backlight brightness and timeout live in Settings.System,
+        // the framework applies those itself
+    }
+
+    private BootRestore() {
+    }
+
+    public static synchronized void register(Restorable item) {
+        sItems.add(item);
+    }
+
+    /**
+     * Timings of one restore run.
+     */
+    public static final class Report {
+        private final StringBuilder mLines = new StringBuilder();
+        private int mFailures;
+
+        private synchronized void add(Restorable item, long elapsed, boolean ok) {
+            if (!ok) {
+                mFailures++;
+            }
+            mLines.append(item.getName()).append(' ')
+                    .append(BACKEND_NAMES[item.getBackend()]).append(' ')
+                    .append(elapsed).append("ms")
+                    .append(ok ? "" : " FAILED").append('\n');
+        }
+
+        private synchronized String finish(long total, boolean complete) {
+            mLines.append("total ").append(total).append("ms");
+            if (mFailures > 0) {
+                mLines.append(", ").append(mFailures).append(" failed");
+            }
+            if (!complete) {
+                mLines.append(", gave up waiting");
+            }
+            return mLines.toString();
+        }
+    }
+
+    /**
+     * Restores everything registered. Blocks for up to {@link #DEADLINE_MS},
+     * call it off the main thread.
+     */
+    public static void run(final Context context) {
+        final long start = SystemClock.elapsedRealtime();
+        final Report report = new Report();
+
+        final ArrayList<Restorable> hal = new ArrayList<Restorable>();
+        final ArrayList<Restorable> sysfs = new ArrayList<Restorable>();
+        final ArrayList<Restorable> su = new ArrayList<Restorable>();
+        final ArrayList<Restorable> framework = new ArrayList<Restorable>();
+        synchronized (BootRestore.class) {
+            for (Restorable item : sItems) {
+                if (!item.isSupported(context)) {
+                    continue;
+                }
+                switch (item.getBackend()) {
+                    case BACKEND_HAL:
+                        hal.add(item);
+                        break;
+                    case BACKEND_SYSFS:
+                        sysfs.add(item);
+                        break;
+                    case BACKEND_SU:
+                        su.add(item);
+                        break;
+                    default:
+                        framework.add(item);
+                        break;
+                }
+            }
+        }
+
+        // one task per HAL item, one for all sysfs items, one for the su script
+        int tasks = hal.size() + (sysfs.isEmpty() ? 0 : 1) + (su.isEmpty() ? 0 : 1);
+        final CountDownLatch done = new CountDownLatch(tasks);
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, tasks));
+
+        for (final Restorable item : hal) {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    restoreTimed(context, item, report);
+                    done.countDown();
+                }
+            });
+        }
+        if (!sysfs.isEmpty()) {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    for (Restorable item : sysfs) {
+                        restoreTimed(context, item, report);
+                    }
+                    done.countDown();
+                }
+            });
+        }
+        if (!su.isEmpty()) {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    restoreSu(context, su, report);
+                    done.countDown();
+                }
+            });
+        }
+        executor.shutdown();
+
+        for (Restorable item : framework) {
+            restoreTimed(context, item, report);
+        }
+
+        boolean complete = false;
+        try {
+            complete = done.await(DEADLINE_MS - (SystemClock.elapsedRealtime() - start),
+                    TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        String summary = report.finish(SystemClock.elapsedRealtime() - start, complete);
+        Log.i(TAG, summary);
+        getPrefs(context).edit().putString(PREF_REPORT, summary).apply();
+    }
+
+    /**
+     * @return the timings of the last restore, one item per line, or null
+     *         if there was none yet
+     */
+    public static String getLastReport(Context context) {
+        return getPrefs(context).getString(PREF_REPORT, null);
+    }
+
+    private static void restoreTimed(Context context, Restorable item, Report report) {
+        long start = SystemClock.elapsedRealtime();
+        boolean ok = true;
+        try {
+            item.restore(context);
+        } catch (RuntimeException e) {
+            Log.e(TAG, "Failed to restore " + item.getName(), e);
+            ok = false;
+        }
+        report.add(item, SystemClock.elapsedRealtime() - start, ok);
+    }
+
+    private static void restoreSu(Context context, ArrayList<Restorable> items, Report report) {
+        ArrayList<String> commands = new ArrayList<String>();
+        // index of each item's first command, items.size() + 1 entries
+        int[] first = new int[items.size() + 1];
+        for (int i = 0; i < items.size(); i++) {
+            first[i] = commands.size();
+            String[] cmds = items.get(i).getCommands(context);
+            if (cmds != null) {
+                for (String cmd : cmds) {
+                    commands.add(cmd);
+                }
+            }
+        }
+        first[items.size()] = commands.size();
+        if (commands.isEmpty()) {
+            return;
+        }
+
+        // one shell for all of them, the time is shared out evenly
+        BatchResult result = CMDProcessorAOKP.runSuBatch(
+                commands.toArray(new String[commands.size()]));
+        long each = result.getElapsedTimeMillis() / items.size();
+        for (int i = 0; i < items.size(); i++) {
+            boolean ok = true;
+            for (int c = first[i]; c < first[i + 1]; c++) {
+                ok &= result.success(c);
+            }
+            report.add(items.get(i), each, ok);
+        }
+    }
+
+    private static SharedPreferences getPrefs(Context context) {
+        return PreferenceManager.getDefaultSharedPreferences(context);
+    }
+}
@@ -1,27 +1,146 @@
-
 package com.oct.tentacles.service;
 
-import com.oct.tentacles.util.CMDProcessor;
+import com.oct.tentacles.util.BatchResult;
+import com.oct.tentacles.util.CMDProcessorAOKP;
+import com.oct.tentacles.util.RootCommandScheduler;
 
 import android.app.IntentService;
 import android.content.Intent;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 /**
  * Helper class to queue su commands that can be run from broadcast receivers,
  * specifically like ones defined in AndroidManifest.xml, as they are run in the
  * main thread, and starting async operations does not guarantee execution. This
  * class should not be accessible from outside ROMControl. Commands will be queued.
+ *
+ * Receivers tend to fire in bursts, so whatever piled up while a batch ran is
+ * drained at once: repeated writes to the same node collapse to the last one
+ * and the survivors run as a single root script.
  */
 public class ExternalCommandService extends IntentService {
+    private static final String TAG = "ExternalCommandService";
+
+    // "echo <value> > <path>", a plain overwrite of a single node
+    private static final Pattern WRITE_PATTERN =
+            Pattern.compile("^\\s*echo\\s+[^;&|<>]*>\\s*([^\\s;&|<>]+)\\s*$");
+
+    private final ArrayList<String> mPending = new ArrayList<String>();
+
+    private static int sMaxQueueDepth;
+    private static long sLastBatchLatencyMs;
+    private static int sCoalescedCount;
 
     public ExternalCommandService() {
         super(ExternalCommandService.class.getSimpleName());
     }
 
+    @Override
+    public int onStartCommand(Intent intent, int flags, int startId) {
+        // queue here, on the main thread, so a running batch can see
+        // everything that arrived while it was busy
+        if (intent != null && intent.hasExtra("cmd")) {
+            synchronized (mPending) {
+                mPending.add(intent.getStringExtra("cmd"));
+                sMaxQueueDepth = Math.max(sMaxQueueDepth, mPending.size());
+            }
+        }
+        return super.onStartCommand(intent, flags, startId);
+    }
+
     @Override
     protected void onHandleIntent(Intent intent) {
-        if (intent.hasExtra("cmd")) {
-            new CMDProcessor().su.runWaitFor(intent.getStringExtra("cmd"));
+        final String[] batch;
+        synchronized (mPending) {
+            if (mPending.isEmpty()) {
+                // an earlier batch already picked this one up
+                return;
+            }
+            batch = coalesce(mPending);
+            mPending.clear();
+        }
+
+        // run on the background lane so this never delays root work the
+        // user is waiting on; wait for it to keep the service alive
+        final long start = SystemClock.elapsedRealtime();
+        Future<BatchResult> result = RootCommandScheduler.getInstance().submit(
+                RootCommandScheduler.LANE_BACKGROUND, new Callable<BatchResult>() {
+                    @Override
+                    public BatchResult call() {
+                        return CMDProcessorAOKP.runSuBatch(batch);
+                    }
+                }, null);
+        try {
+            if (!result.get().success()) {
+                Log.w(TAG, "Some commands of the batch failed");
+            }
+        } catch (InterruptedException e) {
+            result.cancel(true);
+        } catch (ExecutionException e) {
+            Log.e(TAG, "Batch failed", e.getCause());
         }
+        sLastBatchLatencyMs = SystemClock.elapsedRealtime() - start;
+        Log.d(TAG, "Ran " + batch.length + " commands in " + sLastBatchLatencyMs
+                + "ms, max queue depth " + sMaxQueueDepth);
+    }
+
+    /**
+     * Drops writes that are overwritten by a later write to the same path.
+     * Anything that isn't a plain write acts as a barrier, we don't know
+     * what it does with the nodes written before it.
+     */
+    private static String[] coalesce(ArrayList<String> commands) {
+        boolean[] dropped = new boolean[commands.size()];
+        HashMap<String, Integer> lastWrite = new HashMap<String, Integer>();
+        int survivors = commands.size();
+        for (int i = 0; i < commands.size(); i++) {
+            Matcher m = WRITE_PATTERN.matcher(commands.get(i));
+            if (!m.matches()) {
+                lastWrite.clear();
+                continue;
+            }
+            Integer previous = lastWrite.put(m.group(1), i);
+            if (previous != null) {
+                dropped[previous] = true;
+                survivors--;
+            }
+        }
+        sCoalescedCount += commands.size() - survivors;
+
+        String[] batch = new String[survivors];
+        int n = 0;
+        for (int i = 0; i < commands.size(); i++) {
+            if (!dropped[i]) {
+                batch[n++] = commands.get(i);
+            }
+        }
+        return batch;
+    }
+
+    /**
+     * @return the deepest the queue got since the process started
+     */
+    public static int getMaxQueueDepth() {
+        return sMaxQueueDepth;
+    }
+
+    public static long getLastBatchLatencyMs() {
+        return sLastBatchLatencyMs;
+    }
+
+    /**
+     * @return how many redundant writes were skipped so far
+     */
+    public static int getCoalescedCount() {
+        return sCoalescedCount;
     }
 }
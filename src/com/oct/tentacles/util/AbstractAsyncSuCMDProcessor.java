@@ -2,10 +2,12 @@
 package com.oct.tentacles.util;
 
 import android.os.AsyncTask;
+import android.os.CancellationSignal;
 
-import com.oct.tentacles.objects.EasyPair;
-import com.oct.tentacles.util.CMDProcessor;
-import com.oct.tentacles.util.Helpers;
+import com.oct.tentacles.util.BatchResult;
+import com.oct.tentacles.util.CMDProcessorAOKP;
+import com.oct.tentacles.util.ProcessWatchdog;
+import com.oct.tentacles.util.SystemMount;
 
 /**
  * An abstract implentation of AsyncTask
@@ -13,6 +15,7 @@ import com.oct.tentacles.util.Helpers;
  * since our needs are simple send a command, perform a task when we finish
  * this implentation requires you send the command as String...
  * in the .execute(String) so you can send String[] of commands if needed
+ * all commands are sent as one script to a single su process
  *
  * This class is not for you if...
  *     1) You do not need to perform any action after command execution
@@ -30,8 +33,12 @@ import com.oct.tentacles.util.Helpers;
 public abstract class AbstractAsyncSuCMDProcessor extends AsyncTask<String, Void, String> {
     // if /system needs to be mounted before command
     private boolean mMountSystem;
-    // su terminal we execute on
-    private CMDProcessor mTerm;
+    // results of every command from the last run
+    private BatchResult mBatchResult;
+    // how long the whole script may run
+    private long mTimeoutMs = ProcessWatchdog.NO_TIMEOUT;
+    // kills the script, a task only ever executes once so one is enough
+    private final CancellationSignal mSignal = new CancellationSignal();
     // return if we recieve a null command or empty command
     public final String FAILURE = "failed_no_command";
 
@@ -50,6 +57,27 @@ public abstract class AbstractAsyncSuCMDProcessor extends AsyncTask<String, Void
          this.mMountSystem = false;
     }
 
+    /**
+     * Kill the script if it has not finished after timeoutMs, call before
+     * execute(). Check {@link BatchResult#getScriptResult()} timedOut()
+     * in {@link #onPostExecute} to tell it apart from a failure.
+     */
+    public void setTimeout(long timeoutMs) {
+        this.mTimeoutMs = timeoutMs;
+    }
+
+    /**
+     * Cancels the task and kills its script right away, whether or not
+     * the thread may be interrupted. Use instead of cancel(), which only
+     * reaches a running script through cancel(true).
+     *
+     * @return false if the task could not be cancelled, see cancel()
+     */
+    public final boolean cancelScript() {
+        mSignal.cancel();
+        return cancel(false);
+    }
+
     /**
      * DO NOT override this method you should simply send your commands off
      * as params and expect to handle results in {@link #onPostExecute}
@@ -67,30 +95,41 @@ public abstract class AbstractAsyncSuCMDProcessor extends AsyncTask<String, Void
         if (params[0] == null || params[0].trim().equals(""))
             return FAILURE;
 
-        mTerm = new CMDProcessor();
-        EasyPair<String, String> pairedOutput = new EasyPair<String, String>(FAILURE, FAILURE);
-
-        // conditionally enforce mounting
-        if (mMountSystem) {
-            Helpers.getMount("rw");
+        // always watch for null and empty strings, lazy devs :/
+        for (int i = 0; params.length > i; i++) {
+            if (params[i] == null || params[i].trim().equals(""))
+                // bail because of careless devs
+                return FAILURE;
         }
+
+        // cancel() may have beaten us here
+        if (isCancelled() || mSignal.isCanceled())
+            return FAILURE;
+
+        // conditionally enforce mounting, shared with any other writer
+        SystemMount.Scope mount = mMountSystem ? SystemMount.getInstance().acquire() : null;
         try {
-            // process all commands ***DO NOT SEND null OR ""; you have been warned***
-            for (int i = 0; params.length > i; i++) {
-                // always watch for null and empty strings, lazy devs :/
-                if (params[i] != null && !params[i].trim().equals(""))
-                    pairedOutput = mTerm.su.runWaitFor(params[i]).getOutput();
-                else
-                    // bail because of careless devs
-                    return FAILURE;
-            }
+            // process all commands as one script in a single su process
+            // cancelScript() or cancel(true) kill the script
+            mBatchResult = CMDProcessorAOKP.runSuBatch(params, mTimeoutMs, mSignal);
         // always unmount
         } finally {
-            if (mMountSystem)
-                Helpers.getMount("ro");
+            // goes back to ro shortly after the last writer is done
+            if (mount != null)
+                mount.release();
         }
-        // return the last commmand result output EasyPair<stdout, stderr>
-        return pairedOutput.getFirst();
+        // return the last commmand's stdout
+        return mBatchResult.getStdout(mBatchResult.size() - 1);
+    }
+
+    /**
+     * Per command exit values and output of the last run, for subclasses
+     * that need more than the last command's stdout in {@link #onPostExecute}
+     *
+     * @return the batch result or null if nothing was run
+     */
+    protected BatchResult getBatchResult() {
+        return mBatchResult;
     }
 
     /**
@@ -1,6 +1,5 @@
 package com.oct.tentacles.util;
 
-import android.content.ContentResolver;
 import android.content.Context;
 import android.content.res.Resources;
 import android.content.res.Resources.NotFoundException;
@@ -11,8 +10,6 @@ import android.widget.LinearLayout;
 import android.widget.TextView;
 import com.oct.tentacles.R;
 
-import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
 import java.util.ArrayList;
 
 /**
@@ -135,40 +132,8 @@ public class BaseSetting extends LinearLayout {
         String key = getKey();
         // Log.d(TAG, "Attempting to set key " + key + " to value: " + s + ", in table: " + getTable());
 
-        // dirty dirty! use reflection to allow compilation via gradle/android studio
-        try {
-            String className = "android.provider.Settings$";
-            if ("system".equalsIgnoreCase(getTable())) {
-                className += "System";
-            } else {
-                className += "AOKP";
-            }
-            Class<?> clazz = Class.forName(className);
-
-            Class[] params = new Class[3];
-            params[0] = ContentResolver.class;
-            params[1] = String.class;
-            params[2] = String.class;
-
-            Object[] paramObjects = new Object[3];
-            paramObjects[0] = getContext().getContentResolver();
-            paramObjects[1] = getKey();
-            paramObjects[2] = s;
-
-            Method method = clazz.getDeclaredMethod("putString", params);
-            method.setAccessible(true);
-
-            Boolean result = (Boolean) method.invoke(null, paramObjects);
-            // Log.d(TAG, "result: " + result.toString());
-        } catch (InvocationTargetException e) {
-            e.printStackTrace();
-        } catch (IllegalAccessException e) {
-            e.printStackTrace();
-        } catch (NoSuchMethodException e) {
-            e.printStackTrace();
-        } catch (ClassNotFoundException e1) {
-            e1.printStackTrace();
-        }
+        SettingsAccessor.forTable(getTable()).putString(
+                getContext().getContentResolver(), key, s);
         if (mOnSettingChangedListener != null) {
             mOnSettingChangedListener.onSettingChanged(getTable(), key, currentVal, s);
         }
@@ -182,38 +147,8 @@ public class BaseSetting extends LinearLayout {
             return null;
         }
 
-        // dirty dirty! use reflection to allow compilation via gradle/android studio
-        try {
-            String className = "android.provider.Settings$";
-            if ("system".equalsIgnoreCase(getTable())) {
-                className += "System";
-            } else {
-                className += "AOKP";
-            }
-            Class<?> clazz = Class.forName(className);
-            Class[] params = new Class[2];
-            params[0] = ContentResolver.class;
-            params[1] = String.class;
-
-            Object[] paramObjects = new Object[2];
-            paramObjects[0] = getContext().getContentResolver();
-            paramObjects[1] = getKey();
-
-            Method method = clazz.getDeclaredMethod("getString", params);
-            method.setAccessible(true);
-            Object result = method.invoke(null, paramObjects);
-            //Log.d(TAG, "result: " + result != null ? result : "null");
-            return (String) result;
-        } catch (NoSuchMethodException e1) {
-            e1.printStackTrace();
-        } catch (IllegalAccessException e1) {
-            e1.printStackTrace();
-        } catch (InvocationTargetException e1) {
-            e1.printStackTrace();
-        } catch (ClassNotFoundException e1) {
-            e1.printStackTrace();
-        }
-        return null;
+        return SettingsAccessor.forTable(getTable()).getString(
+                getContext().getContentResolver(), getKey());
     }
 
 
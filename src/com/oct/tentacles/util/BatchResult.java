@@ -0,0 +1,171 @@
+package com.oct.tentacles.util;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per command results of a script run through
+ * {@link CMDProcessorAOKP#runSuBatch(String[])}.
+ *
+ * Every command of the batch is framed by a marker on both stdout and stderr
+ * so a single child process can report each exit code and output separately.
+ * Commands that never reported back (the shell died half way) are reported
+ * with an exit value of {@link #NOT_RUN}.
+ */
+public class BatchResult {
+    public static final int NOT_RUN = -1;
+
+    private final int[] mExitValues;
+    private final String[] mStdout;
+    private final String[] mStderr;
+    private final CommandResult[] mResults;
+    private final CommandResult mScriptResult;
+
+    private BatchResult(int count, CommandResult scriptResult) {
+        mExitValues = new int[count];
+        mStdout = new String[count];
+        mStderr = new String[count];
+        mResults = new CommandResult[count];
+        mScriptResult = scriptResult;
+        for (int i = 0; i < count; i++) {
+            mExitValues[i] = NOT_RUN;
+            mStdout[i] = "";
+            mStderr[i] = "";
+        }
+    }
+
+    /**
+     * Builds a script that hands every command, quoted, to its own sh -c
+     * with stdin from /dev/null, so neither input nor a stray quote, paren
+     * or heredoc can eat the rest of the script, and reports where its
+     * output ends.
+     */
+    static String buildScript(String[] commands, String marker) {
+        StringBuilder script = new StringBuilder();
+        for (int i = 0; i < commands.length; i++) {
+            script.append("sh -c ").append(RootShell.quote(commands[i]))
+                    .append(" </dev/null\n");
+            script.append("echo \"").append(marker).append(' ').append(i).append(" $?\"\n");
+            script.append("echo \"").append(marker).append(' ').append(i).append("\" >&2\n");
+        }
+        script.append("exit\n");
+        return script.toString();
+    }
+
+    static BatchResult parse(int count, String marker, CommandResult scriptResult) {
+        BatchResult result = new BatchResult(count, scriptResult);
+        result.split(scriptResult.getStdout(), marker, true);
+        result.split(scriptResult.getStderr(), marker, false);
+        for (int i = 0; i < count; i++) {
+            // commands share the script's timing, we only know when it ran
+            result.mResults[i] = new CommandResult(scriptResult.getStartTime(),
+                    result.mExitValues[i], result.mStdout[i], result.mStderr[i],
+                    scriptResult.getEndTime());
+        }
+        return result;
+    }
+
+    private void split(String output, String marker, boolean isStdout) {
+        StringBuilder block = new StringBuilder();
+        int start = 0;
+        while (start < output.length()) {
+            int end = output.indexOf('\n', start);
+            if (end < 0) {
+                end = output.length();
+            }
+            String line = output.substring(start, end);
+            start = end + 1;
+
+            int idx = line.indexOf(marker);
+            if (idx < 0) {
+                if (block.length() > 0) {
+                    block.append('\n');
+                }
+                block.append(line);
+                continue;
+            }
+            // output without a trailing newline ends up on the marker line
+            if (idx > 0) {
+                if (block.length() > 0) {
+                    block.append('\n');
+                }
+                block.append(line.substring(0, idx));
+            }
+            String[] fields = line.substring(idx + marker.length()).trim().split(" ");
+            int command;
+            try {
+                command = Integer.parseInt(fields[0]);
+            } catch (NumberFormatException e) {
+                continue;
+            }
+            if (command < 0 || command >= mExitValues.length) {
+                continue;
+            }
+            if (isStdout) {
+                mStdout[command] = block.toString();
+                try {
+                    mExitValues[command] = fields.length > 1
+                            ? Integer.parseInt(fields[1]) : NOT_RUN;
+                } catch (NumberFormatException e) {
+                    mExitValues[command] = NOT_RUN;
+                }
+            } else {
+                mStderr[command] = block.toString();
+            }
+            block.setLength(0);
+        }
+    }
+
+    public int size() {
+        return mExitValues.length;
+    }
+
+    public int getExitValue(int index) {
+        return mExitValues[index];
+    }
+
+    public String getStdout(int index) {
+        return mStdout[index];
+    }
+
+    public String getStderr(int index) {
+        return mStderr[index];
+    }
+
+    public CommandResult getResult(int index) {
+        return mResults[index];
+    }
+
+    public boolean success(int index) {
+        return mExitValues[index] == 0;
+    }
+
+    /**
+     * @return true if every command in the batch exited with 0
+     */
+    public boolean success() {
+        for (int exitValue : mExitValues) {
+            if (exitValue != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the result of the wrapping shell process itself
+     */
+    public CommandResult getScriptResult() {
+        return mScriptResult;
+    }
+
+    /**
+     * @return how long the script ran, in nanoseconds
+     */
+    public long getElapsedTime() {
+        return mScriptResult.getEndTime() - mScriptResult.getStartTime();
+    }
+
+    public long getElapsedTimeMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(getElapsedTime());
+    }
+}
@@ -1,6 +1,7 @@
 
 package com.oct.tentacles.util;
 
+import android.os.CancellationSignal;
 import android.util.Log;
 
 import java.io.DataInputStream;
@@ -16,10 +17,12 @@ public class CMDProcessor {
     private Boolean can_su;
     public SH sh;
     public SH su;
+    public PooledSU pool;
 
     public CMDProcessor() {
         sh = new SH("sh");
         su = new SH("su");
+        pool = new PooledSU();
     }
 
     public SH suOrSH() {
@@ -55,6 +58,14 @@ public class CMDProcessor {
             return exit_value != null && exit_value == 0;
         }
 
+        public boolean timedOut() {
+            return exit_value != null && exit_value == ProcessWatchdog.EXIT_TIMED_OUT;
+        }
+
+        public boolean cancelled() {
+            return exit_value != null && exit_value == ProcessWatchdog.EXIT_CANCELLED;
+        }
+
         public EasyPair<String, String> getOutput() {
             return new EasyPair<String, String>(stdout, stderr);
         }
@@ -105,18 +116,38 @@ public class CMDProcessor {
         }
 
         public CommandResult runWaitFor(final String s) {
+            return runWaitFor(s, ProcessWatchdog.NO_TIMEOUT, null);
+        }
+
+        /**
+         * Like {@link #runWaitFor(String)} but kills the shell, and whatever
+         * it started, once timeoutMs passed or signal got cancelled.
+         * Interrupting the calling thread cancels too.
+         */
+        public CommandResult runWaitFor(final String s, final long timeoutMs,
+                final CancellationSignal signal) {
             if (DEBUG) Log.d(TAG, "runWaitFor( " + s + " )");
             final Process process = run(s);
             Integer exit_value = null;
             String stdout = null;
             String stderr = null;
             if (process != null) {
+                final ProcessWatchdog.Guard guard =
+                        ProcessWatchdog.watch(process, timeoutMs, signal);
                 try {
                     exit_value = process.waitFor();
-                    stdout = getStreamLines(process.getInputStream());
-                    stderr = getStreamLines(process.getErrorStream());
                 } catch (final InterruptedException e) {
                     Log.e(TAG, "runWaitFor " + e.toString());
+                    guard.cancel();
+                    Thread.currentThread().interrupt();
+                }
+                guard.release();
+                if (guard.fired()) {
+                    exit_value = guard.getReason();
+                }
+                try {
+                    stdout = getStreamLines(process.getInputStream());
+                    stderr = getStreamLines(process.getErrorStream());
                 } catch (final NullPointerException e) {
                     Log.e(TAG, "runWaitFor " + e.toString());
                 }
@@ -125,6 +156,34 @@ public class CMDProcessor {
         }
     }
 
+    /**
+     * Runs commands on a warm su session from {@link RootShellPool} instead
+     * of spawning and authorizing a new su process for every command.
+     * Falls back to {@link #su} only if no pooled session can be opened;
+     * cancelled and timed out commands are reported, never run again.
+     */
+    public class PooledSU {
+
+        public CommandResult runWaitFor(final String s) {
+            return runWaitFor(s, ProcessWatchdog.NO_TIMEOUT, null);
+        }
+
+        /**
+         * A command that overruns its deadline takes its whole session down
+         * with it; the pool opens a fresh one for the next command.
+         */
+        public CommandResult runWaitFor(final String s, final long timeoutMs,
+                final CancellationSignal signal) {
+            if (DEBUG) Log.d(TAG, "pool.runWaitFor( " + s + " )");
+            final RootShell.Output out =
+                    RootShellPool.getInstance().exec(s, timeoutMs, signal);
+            if (out == null) {
+                return su.runWaitFor(s, timeoutMs, signal);
+            }
+            return new CommandResult(out.exitValue, out.stdout, out.stderr);
+        }
+    }
+
     public boolean canSU(final boolean force_check) {
         if (can_su == null || force_check) {
             final CommandResult r = su.runWaitFor("id");
@@ -1,5 +1,6 @@
 package com.oct.tentacles.util;
 
+import android.os.CancellationSignal;
 import android.util.Log;
 
 // convenience import for quick referencing of this method
@@ -17,12 +18,32 @@ public final class CMDProcessorAOKP {
         return new ChildProcess(cmdarray, childStdin);
     }
 
+    /*
+     * Run a system command and stream its output line by line to listener,
+     * keeping at most maxRetained chars of each stream for the final result
+     */
+    public static ChildProcess startSysCmd(String[] cmdarray, String childStdin,
+            ChildProcess.OutputListener listener, int maxRetained) {
+        return new ChildProcess(cmdarray, childStdin, listener, true, maxRetained);
+    }
+
     public static CommandResult runSysCmd(String[] cmdarray, String childStdin) {
         ChildProcess proc = startSysCmd(cmdarray, childStdin);
         proc.waitFinished();
         return proc.getResult();
     }
 
+    /*
+     * Run a system command, killing it once timeoutMs passed or signal got
+     * cancelled; see CommandResult.timedOut() and CommandResult.cancelled()
+     */
+    public static CommandResult runSysCmd(String[] cmdarray, String childStdin,
+            long timeoutMs, CancellationSignal signal) {
+        ChildProcess proc = startSysCmd(cmdarray, childStdin);
+        proc.waitFinished(timeoutMs, signal);
+        return proc.getResult();
+    }
+
     public static ChildProcess startShellCommand(String cmd) {
         String[] cmdarray = new String[3];
         cmdarray[0] = "sh";
@@ -31,6 +52,15 @@ public final class CMDProcessorAOKP {
         return startSysCmd(cmdarray, null);
     }
 
+    public static ChildProcess startShellCommand(String cmd,
+            ChildProcess.OutputListener listener, int maxRetained) {
+        String[] cmdarray = new String[3];
+        cmdarray[0] = "sh";
+        cmdarray[1] = "-c";
+        cmdarray[2] = cmd;
+        return startSysCmd(cmdarray, null, listener, maxRetained);
+    }
+
     public static CommandResult runShellCommand(String cmd) {
         ChildProcess proc = startShellCommand(cmd);
         proc.waitFinished();
@@ -45,12 +75,51 @@ public final class CMDProcessorAOKP {
         return startSysCmd(cmdarray, null);
     }
 
+    public static ChildProcess startSuCommand(String cmd,
+            ChildProcess.OutputListener listener, int maxRetained) {
+        String[] cmdarray = new String[3];
+        cmdarray[0] = "su";
+        cmdarray[1] = "-c";
+        cmdarray[2] = cmd;
+        return startSysCmd(cmdarray, null, listener, maxRetained);
+    }
+
     public static CommandResult runSuCommand(String cmd) {
         ChildProcess proc = startSuCommand(cmd);
         proc.waitFinished();
         return proc.getResult();
     }
 
+    public static CommandResult runSuCommand(String cmd, long timeoutMs) {
+        ChildProcess proc = startSuCommand(cmd);
+        proc.waitFinished(timeoutMs, null);
+        return proc.getResult();
+    }
+
+    /**
+     * Run a list of commands as a single su script fed through stdin, so the
+     * whole list costs one process launch. Each command's exit value and
+     * output is reported separately in the returned {@link BatchResult}.
+     */
+    public static BatchResult runSuBatch(String[] commands) {
+        return runSuBatch(commands, ProcessWatchdog.NO_TIMEOUT, null);
+    }
+
+    /**
+     * Like {@link #runSuBatch(String[])} but kills the script once timeoutMs
+     * passed or signal got cancelled. Commands that did not get to run are
+     * reported as {@link BatchResult#NOT_RUN}.
+     */
+    public static BatchResult runSuBatch(String[] commands, long timeoutMs,
+            CancellationSignal signal) {
+        String marker = "__tentacles_batch_" + Long.toHexString(System.nanoTime()) + "__";
+        String[] cmdarray = new String[1];
+        cmdarray[0] = "su";
+        ChildProcess proc = startSysCmd(cmdarray, BatchResult.buildScript(commands, marker));
+        proc.waitFinished(timeoutMs, signal);
+        return BatchResult.parse(commands.length, marker, proc.getResult(false));
+    }
+
     public static boolean canSU() {
         CommandResult r = runShellCommand("id");
         StringBuilder out = new StringBuilder(0);
@@ -65,14 +65,15 @@ public class CheckboxSetting extends BaseSetting implements OnClickListener {
         updateSummary();
 
         // The default value of a boolean setting is usually stored as 1 or 0, but support "true" and "false" values
-        if (getValue() == null && getDefaultValue() != null) {
+        String value = getValue();
+        if (value == null && getDefaultValue() != null) {
 
             // if this key is not present in the table, try to use the defualt value supplied
             mChecked = Boolean.valueOf(getDefaultValue()) || getDefaultValue().equals("1");
 
-        } else if (getValue() != null) {
+        } else if (value != null) {
 
-            mChecked = getValue().equals("1");
+            mChecked = value.equals("1");
 
         }
         mCheckBox.setChecked(mChecked);
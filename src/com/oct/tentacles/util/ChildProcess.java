@@ -1,45 +1,275 @@
 package com.oct.tentacles.util;
 
+import android.os.CancellationSignal;
+import android.util.Log;
+
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static java.lang.System.nanoTime;
 
 public class ChildProcess {
     private String TAG = getClass().getSimpleName();
 
-    private static final int PIPE_SIZE = 1024;
+    private static final int PIPE_SIZE = 8192;
+    private static final int MAX_POOLED_BUFFERS = 16;
+
+    /*
+     * Reader and writer pumps of every child run on this pool, so a burst of
+     * commands reuses a handful of threads instead of creating three per
+     * child. The pumps block on their pipes, so the pool must not be bounded
+     * or a child could wedge waiting on a stream nobody drains.
+     */
+    private static final ExecutorService sPumpExecutor = new ThreadPoolExecutor(
+            0, Integer.MAX_VALUE, 30, TimeUnit.SECONDS,
+            new SynchronousQueue<Runnable>(), new ThreadFactory() {
+                private final AtomicInteger mCount = new AtomicInteger();
+
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "ChildProcess #" + mCount.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+    private static final ConcurrentLinkedQueue<byte[]> sBuffers =
+            new ConcurrentLinkedQueue<byte[]>();
+
+    // retain everything the child prints, the old behaviour
+    public static final int RETAIN_ALL = -1;
+    // pending deliveries per stream before the reader blocks on the child
+    private static final int MAX_PENDING = 64;
+    // how long to wait for output of a killed child before giving up on it
+    private static final long KILL_DRAIN_MS = 1000;
+    // exit value reported when the child could not be started at all
+    public static final int EXIT_EXEC_FAILED = -1;
+
+    /**
+     * Receives output of a child while it is still running. Callbacks come
+     * in order, one at a time, on a background executor; never on the
+     * reader itself, so a slow listener only stalls the child (its pipe
+     * fills up) rather than losing output.
+     */
+    public interface OutputListener {
+        /**
+         * @param text a line without its terminator, or a raw chunk when
+         *             the child was started without line splitting
+         */
+        void onStdout(String text);
+
+        void onStderr(String text);
+    }
+
+    /**
+     * Hands output of one stream to the listener on the executor without
+     * pinning an executor thread while the child is quiet.
+     */
+    private class OutputDispatcher implements Runnable {
+        private final boolean mIsStderr;
+        private final LinkedBlockingQueue<String> mPending =
+                new LinkedBlockingQueue<String>(MAX_PENDING);
+        private final AtomicBoolean mScheduled = new AtomicBoolean();
+        private final CountDownLatch mDrained = new CountDownLatch(1);
+        private volatile boolean mClosed;
+        // set once the listener threw, the rest of the output is dropped
+        private boolean mListenerFailed;
+
+        OutputDispatcher(boolean isStderr) {
+            mIsStderr = isStderr;
+        }
+
+        void deliver(String text) throws InterruptedException {
+            mPending.put(text);
+            schedule();
+        }
+
+        void close() {
+            mClosed = true;
+            schedule();
+        }
 
-    private class ChildReader extends Thread {
+        private void schedule() {
+            if (mScheduled.compareAndSet(false, true)) {
+                mExecutor.execute(this);
+            }
+        }
+
+        @Override
+        public void run() {
+            boolean finished = false;
+            try {
+                while (true) {
+                    String text;
+                    while ((text = mPending.poll()) != null) {
+                        dispatch(text);
+                    }
+                    mScheduled.set(false);
+                    if (mClosed && mPending.isEmpty()) {
+                        mDrained.countDown();
+                        finished = true;
+                        return;
+                    }
+                    // something arrived after we emptied the queue
+                    if (mPending.isEmpty() || !mScheduled.compareAndSet(false, true)) {
+                        finished = true;
+                        return;
+                    }
+                }
+            } finally {
+                if (!finished) {
+                    // don't leave waitFinished() or the next schedule() hanging
+                    mListenerFailed = true;
+                    mPending.clear();
+                    mScheduled.set(false);
+                    mDrained.countDown();
+                }
+            }
+        }
+
+        private void dispatch(String text) {
+            if (mListenerFailed) {
+                return;
+            }
+            try {
+                if (mIsStderr) {
+                    mListener.onStderr(text);
+                } else {
+                    mListener.onStdout(text);
+                }
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Output listener failed, dropping the rest of its output", e);
+                mListenerFailed = true;
+            }
+        }
+    }
+
+    private class ChildReader implements Runnable {
         InputStream mStream;
-        StringBuffer mBuffer;
+        ByteArrayOutputStream mBuffer;
+        OutputDispatcher mDispatcher;
 
-        ChildReader(InputStream is, StringBuffer buf) {
+        ChildReader(InputStream is, ByteArrayOutputStream buf, OutputDispatcher dispatcher) {
             mStream = is;
             mBuffer = buf;
+            mDispatcher = dispatcher;
         }
 
         public void run() {
-            byte[] buf = new byte[PIPE_SIZE];
+            byte[] buf = obtainBuffer();
+            // '\n' never shows up inside a multi byte UTF-8 char, so
+            // splitting on the raw bytes is safe
+            ByteArrayOutputStream line = new ByteArrayOutputStream();
+            // raw chunks go through one decoder, so a char split over two
+            // reads is carried over instead of turning into garbage
+            RawDecoder raw = mDispatcher != null && !mSplitLines
+                    ? new RawDecoder(buf.length) : null;
             try {
                 int len;
                 while ((len = mStream.read(buf)) != -1) {
-                    String s = new String(buf, 0, len);
-                    mBuffer.append(s);
+                    retain(buf, len);
+                    if (mDispatcher == null) {
+                        continue;
+                    }
+                    if (raw != null) {
+                        raw.deliver(buf, len, false);
+                        continue;
+                    }
+                    int start = 0;
+                    for (int i = 0; i < len; i++) {
+                        if (buf[i] == '\n') {
+                            line.write(buf, start, i - start);
+                            mDispatcher.deliver(line.toString());
+                            line.reset();
+                            start = i + 1;
+                        }
+                    }
+                    line.write(buf, start, len - start);
+                }
+                if (raw != null) {
+                    raw.deliver(buf, 0, true);
+                } else if (mDispatcher != null && line.size() > 0) {
+                    mDispatcher.deliver(line.toString());
                 }
             } catch (IOException e) {
                 // Ignore
+            } catch (InterruptedException e) {
+                // Give up on the rest of the output
+            } finally {
+                recycleBuffer(buf);
+            }
+            if (mDispatcher != null) {
+                mDispatcher.close();
             }
             try {
                 mStream.close();
             } catch (IOException e) {
                 // Ignore
             }
+            mPumpsDone.countDown();
+        }
+
+        private class RawDecoder {
+            private final CharsetDecoder mDecoder = Charset.defaultCharset().newDecoder()
+                    .onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE);
+            // room for a chunk plus the tail of a char left from the last one
+            private final ByteBuffer mIn;
+            private final CharBuffer mOut;
+
+            RawDecoder(int chunkSize) {
+                mIn = ByteBuffer.allocate(chunkSize + 16);
+                mOut = CharBuffer.allocate(chunkSize + 16);
+            }
+
+            void deliver(byte[] buf, int len, boolean eof) throws InterruptedException {
+                mIn.put(buf, 0, len);
+                mIn.flip();
+                mOut.clear();
+                mDecoder.decode(mIn, mOut, eof);
+                if (eof) {
+                    mDecoder.flush(mOut);
+                }
+                mIn.compact();
+                mOut.flip();
+                if (mOut.hasRemaining()) {
+                    mDispatcher.deliver(mOut.toString());
+                }
+            }
+        }
+
+        private void retain(byte[] buf, int len) {
+            synchronized (mBuffer) {
+                if (mMaxRetained == RETAIN_ALL) {
+                    mBuffer.write(buf, 0, len);
+                    return;
+                }
+                int room = mMaxRetained - mBuffer.size();
+                if (room > 0) {
+                    mBuffer.write(buf, 0, Math.min(room, len));
+                }
+            }
         }
     }
 
-    private class ChildWriter extends Thread {
+    private class ChildWriter implements Runnable {
         OutputStream mStream;
         String mBuffer;
 
@@ -49,14 +279,8 @@ public class ChildProcess {
         }
 
         public void run() {
-            int off = 0;
-            byte[] buf = mBuffer.getBytes();
             try {
-                while (off < buf.length) {
-                    int len = Math.min(PIPE_SIZE, buf.length - off);
-                    mStream.write(buf, off, len);
-                    off += len;
-                }
+                mStream.write(mBuffer.getBytes());
             } catch (IOException e) {
                 // Ignore
             }
@@ -65,35 +289,79 @@ public class ChildProcess {
             } catch (IOException e) {
                 // Ignore
             }
+            mPumpsDone.countDown();
+        }
+    }
+
+    private static byte[] obtainBuffer() {
+        byte[] buf = sBuffers.poll();
+        return buf != null ? buf : new byte[PIPE_SIZE];
+    }
+
+    private static void recycleBuffer(byte[] buf) {
+        // the queue size is only a hint, a few extra buffers are harmless
+        if (sBuffers.size() < MAX_POOLED_BUFFERS) {
+            sBuffers.offer(buf);
         }
     }
 
     private long mStartTime;
     private Process mChildProc;
-    private ChildWriter mChildStdinWriter;
-    private ChildReader mChildStdoutReader;
-    private ChildReader mChildStderrReader;
-    private StringBuffer mChildStdout;
-    private StringBuffer mChildStderr;
+    private CountDownLatch mPumpsDone;
+    private ByteArrayOutputStream mChildStdout;
+    private ByteArrayOutputStream mChildStderr;
     private int mExitValue;
     private long mEndTime;
 
+    private final OutputListener mListener;
+    private final Executor mExecutor;
+    private final boolean mSplitLines;
+    private final int mMaxRetained;
+    private OutputDispatcher mStdoutDispatcher;
+    private OutputDispatcher mStderrDispatcher;
+
     public ChildProcess(String[] cmdarray, String childStdin) {
+        this(cmdarray, childStdin, null, true, RETAIN_ALL);
+    }
+
+    /**
+     * Starts a child whose output is streamed to a listener as it arrives.
+     *
+     * @param listener    receives output on the shared pump pool, may be null
+     * @param splitLines  deliver whole lines instead of raw chunks
+     * @param maxRetained how many bytes of each stream to keep for
+     *                    {@link #getResult()}, or {@link #RETAIN_ALL}
+     */
+    public ChildProcess(String[] cmdarray, String childStdin, OutputListener listener,
+                        boolean splitLines, int maxRetained) {
+        mListener = listener;
+        mExecutor = sPumpExecutor;
+        mSplitLines = splitLines;
+        mMaxRetained = maxRetained;
         mStartTime = nanoTime();
+        mChildStdout = new ByteArrayOutputStream();
+        mChildStderr = new ByteArrayOutputStream();
         try {
             mChildProc = Runtime.getRuntime().exec(cmdarray);
+            mPumpsDone = new CountDownLatch(childStdin != null ? 3 : 2);
             if (childStdin != null) {
-                mChildStdinWriter = new ChildWriter(mChildProc.getOutputStream(), childStdin);
-                mChildStdinWriter.start();
-            }
-            mChildStdout = new StringBuffer();
-            mChildStdoutReader = new ChildReader(mChildProc.getInputStream(), mChildStdout);
-            mChildStdoutReader.start();
-            mChildStderr = new StringBuffer();
-            mChildStderrReader = new ChildReader(mChildProc.getErrorStream(), mChildStderr);
-            mChildStderrReader.start();
+                sPumpExecutor.execute(new ChildWriter(mChildProc.getOutputStream(), childStdin));
+            }
+            if (mListener != null) {
+                mStdoutDispatcher = new OutputDispatcher(false);
+                mStderrDispatcher = new OutputDispatcher(true);
+            }
+            sPumpExecutor.execute(new ChildReader(mChildProc.getInputStream(), mChildStdout,
+                    mStdoutDispatcher));
+            sPumpExecutor.execute(new ChildReader(mChildProc.getErrorStream(), mChildStderr,
+                    mStderrDispatcher));
         } catch (IOException e) {
-            // XXX: log
+            Log.e(TAG, "Unable to start " + cmdarray[0], e);
+            mChildProc = null;
+            mExitValue = EXIT_EXEC_FAILED;
+            mEndTime = nanoTime();
+            byte[] msg = String.valueOf(e.getMessage()).getBytes();
+            mChildStderr.write(msg, 0, msg.length);
         }
     }
 
@@ -109,28 +377,84 @@ public class ChildProcess {
         return finished;
     }
 
+    /**
+     * Waits for the child to exit and, when streaming, for every callback
+     * to be delivered. Interrupting the waiting thread kills the child.
+     */
     public int waitFinished() {
-        while (mChildProc != null) {
+        return waitFinished(ProcessWatchdog.NO_TIMEOUT, null);
+    }
+
+    /**
+     * Waits for the child to exit, killing it and everything it spawned if
+     * it runs past timeoutMs or signal gets cancelled.
+     *
+     * @return the exit value, or {@link ProcessWatchdog#EXIT_TIMED_OUT} /
+     *         {@link ProcessWatchdog#EXIT_CANCELLED} if we killed it
+     */
+    public int waitFinished(long timeoutMs, CancellationSignal signal) {
+        if (mChildProc == null) {
+            return mExitValue;
+        }
+        ProcessWatchdog.Guard guard = ProcessWatchdog.watch(mChildProc, timeoutMs, signal);
+        boolean interrupted = false;
+        int exitValue;
+        while (true) {
             try {
-                mExitValue = mChildProc.waitFor();
-                mEndTime = nanoTime();
-                mChildProc = null;
-                mChildStderrReader.join();
-                mChildStderrReader = null;
-                mChildStdoutReader.join();
-                mChildStdoutReader = null;
-                if (mChildStdinWriter != null) {
-                    mChildStdinWriter.join();
-                    mChildStdinWriter = null;
-                }
+                exitValue = mChildProc.waitFor();
+                break;
             } catch (InterruptedException e) {
-                // Ignore
+                // kill it, the next waitFor() returns right away
+                interrupted = true;
+                guard.cancel();
             }
         }
+        guard.release();
+        mEndTime = nanoTime();
+        mExitValue = guard.fired() ? guard.getReason() : exitValue;
+        mChildProc = null;
+
+        // grandchildren may still hold the pipes of a killed child open
+        long drainTimeout = guard.fired() ? KILL_DRAIN_MS : 0;
+        if (mPumpsDone != null) {
+            interrupted |= !awaitQuietly(mPumpsDone, drainTimeout);
+        }
+        if (mStdoutDispatcher != null) {
+            interrupted |= !awaitQuietly(mStdoutDispatcher.mDrained, drainTimeout);
+            interrupted |= !awaitQuietly(mStderrDispatcher.mDrained, drainTimeout);
+            mStdoutDispatcher = null;
+            mStderrDispatcher = null;
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
         return mExitValue;
     }
 
+    /**
+     * @return false if we were interrupted along the way
+     */
+    private static boolean awaitQuietly(CountDownLatch latch, long timeoutMs) {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                if (timeoutMs > 0) {
+                    latch.await(timeoutMs, TimeUnit.MILLISECONDS);
+                } else {
+                    latch.await();
+                }
+                return !interrupted;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+    }
+
     public CommandResult getResult() {
+        return getResult(true);
+    }
+
+    CommandResult getResult(boolean logErrors) {
         if (!isFinished()) {
             throw new IllegalThreadStateException("Child process running");
         }
@@ -139,6 +463,7 @@ public class ChildProcess {
                 mExitValue,
                 mChildStdout.toString(),
                 mChildStderr.toString(),
-                mEndTime);
+                mEndTime,
+                logErrors);
     }
 }
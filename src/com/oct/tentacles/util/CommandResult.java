@@ -1,16 +1,12 @@
 package com.oct.tentacles.util;
 
-import android.os.Environment;
 import android.os.Parcel;
 import android.os.Parcelable;
 import android.util.Log;
 
-import java.io.File;
-import java.io.FileWriter;
-import java.io.IOException;
-
 @SuppressWarnings("AccessOfSystemProperties")
 public class CommandResult implements Parcelable {
+    private static final String LINE_ENDING = System.getProperty("line.separator");
     private final String TAG = getClass().getSimpleName();
     private final long mStartTime;
     private final int mExitValue;
@@ -23,6 +19,16 @@ public class CommandResult implements Parcelable {
                          String stdout,
                          String stderr,
                          long endTime) {
+        this(startTime, exitValue, stdout, stderr, endTime, true);
+    }
+
+    // wrappers like batch scripts report errors per command, not for themselves
+    CommandResult(long startTime,
+                  int exitValue,
+                  String stdout,
+                  String stderr,
+                  long endTime,
+                  boolean logErrors) {
         mStartTime = startTime;
         mExitValue = exitValue;
         mStdout = stdout;
@@ -31,7 +37,9 @@ public class CommandResult implements Parcelable {
 
         Log.d(TAG, "Time to execute: " + (mEndTime - mStartTime) + " ns (nanoseconds)");
         // this is set last so log from here
-        checkForErrors();
+        if (logErrors) {
+            checkForErrors();
+        }
     }
 
     // pretty much just forward the constructor from parcelable to our main
@@ -49,6 +57,14 @@ public class CommandResult implements Parcelable {
         return (mExitValue == 0);
     }
 
+    public boolean timedOut() {
+        return (mExitValue == ProcessWatchdog.EXIT_TIMED_OUT);
+    }
+
+    public boolean cancelled() {
+        return (mExitValue == ProcessWatchdog.EXIT_CANCELLED);
+    }
+
     public long getEndTime() {
         return mEndTime;
     }
@@ -69,7 +85,6 @@ public class CommandResult implements Parcelable {
         return mStartTime;
     }
 
-    @SuppressWarnings("UnnecessaryExplicitNumericCast")
     private void checkForErrors() {
         if (mExitValue != 0
                 || !"".equals(mStderr.trim())) {
@@ -80,37 +95,16 @@ public class CommandResult implements Parcelable {
                     mStderr.contains("chmod: /sys/devices/system/cpu/cpu")
                             // if core is off applying cpu freqs fails
                             || mStderr.contains(": can't create /sys/devices/system/cpu/cpu");
-            String lineEnding = System.getProperty("line.separator");
-            FileWriter errorWriter = null;
-            try {
-                File errorLogFile = new File(
-                        Environment.getExternalStorageDirectory()
-                                + "/tentacles/error.txt");
-                if (!errorLogFile.exists()) {
-                    errorLogFile.createNewFile();
-                }
-                errorWriter = new FileWriter(errorLogFile, true);
+            // the journal writes on its own thread and folds repeats
+            // so a storm of failures doesn't hammer external storage
+            if (skipOfflineCpu) {
                 // only log the cpu state as offline while writing
-                if (skipOfflineCpu) {
-                    errorWriter.write(lineEnding);
-                    errorWriter.write("Attempted to write to an offline cpu core (ignore me).");
-                } else {
-                    errorWriter.write(TAG + " shell error detected!");
-                    errorWriter.write(lineEnding);
-                    errorWriter.write("CommandResult {" + this.toString() + '}');
-                    errorWriter.write(lineEnding);
-                }
-                errorWriter.write(lineEnding);
-            } catch (IOException e) {
-                Log.e(TAG, "Failed to write command result to error file", e);
-            } finally {
-                if (errorWriter != null) {
-                    try {
-                        errorWriter.close();
-                    } catch (IOException ignored) {
-                        // let it go
-                    }
-                }
+                ErrorJournal.getInstance().log("offline_cpu",
+                        "Attempted to write to an offline cpu core (ignore me).");
+            } else {
+                ErrorJournal.getInstance().log(mExitValue + ":" + mStderr,
+                        TAG + " shell error detected!" + LINE_ENDING
+                                + "CommandResult {" + this.toString() + '}');
             }
         }
     }
@@ -0,0 +1,229 @@
+package com.oct.tentacles.util;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.PowerManager;
+import android.os.Process;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.util.ArrayList;
+
+/**
+ * Process wide sampler of the current cpu frequencies.
+ *
+ * Screens showing live frequencies subscribe here instead of running their
+ * own polling threads. All cores are read in one pass on a single
+ * background thread, and only while someone is subscribed and the screen
+ * is on. The rate starts at {@link #MIN_INTERVAL_MS} and backs off to
+ * {@link #MAX_INTERVAL_MS} while nothing changes; subscribers are only
+ * called when something did.
+ *
+ * Register and unregister on the main thread.
+ */
+public final class CpuFrequencySampler {
+    private static final String TAG = "CpuFrequencySampler";
+
+    /** Frequency reported for a core that is offline */
+    public static final int OFFLINE = 0;
+
+    public static final long MIN_INTERVAL_MS = 500;
+    public static final long MAX_INTERVAL_MS = 4000;
+    // unchanged passes before the interval is doubled
+    private static final int STABLE_SAMPLES = 4;
+
+    private static final String CPU_DIR = "/sys/devices/system/cpu";
+    private static final String FREQ_TAIL = "/cpufreq/scaling_cur_freq";
+
+    private static CpuFrequencySampler sInstance;
+
+    public interface Listener {
+        /**
+         * Called on the main thread with the frequency of each core in kHz,
+         * {@link #OFFLINE} for offline cores. The array is shared between
+         * listeners, don't modify it.
+         */
+        void onCpuFrequencies(int[] freqs);
+    }
+
+    private final Context mContext;
+    private final int mCpuCount;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final ArrayList<Listener> mListeners = new ArrayList<Listener>();
+    private SampleLoop mLoop;
+    private int[] mLatest;
+    private boolean mScreenOn = true;
+    private boolean mReceiverRegistered;
+
+    private final BroadcastReceiver mScreenReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            mScreenOn = Intent.ACTION_SCREEN_ON.equals(intent.getAction());
+            updateState();
+        }
+    };
+
+    /**
+     * One run of the sampling thread, from the first subscriber (or screen
+     * on) to the last unsubscribe (or screen off). Everything but the
+     * handler is only touched on its own thread.
+     */
+    private final class SampleLoop implements Runnable {
+        final Handler mHandler;
+        private final SysfsNode[] mNodes = new SysfsNode[mCpuCount];
+        private final int[] mLast = new int[mCpuCount];
+        private long mInterval = MIN_INTERVAL_MS;
+        private int mStable;
+        private boolean mFirst = true;
+
+        SampleLoop() {
+            HandlerThread thread = new HandlerThread(TAG, Process.THREAD_PRIORITY_BACKGROUND);
+            thread.start();
+            mHandler = new Handler(thread.getLooper());
+            for (int i = 0; i < mCpuCount; i++) {
+                mNodes[i] = new SysfsNode(CPU_DIR + "/cpu" + i + FREQ_TAIL);
+            }
+        }
+
+        @Override
+        public void run() {
+            boolean changed = mFirst;
+            mFirst = false;
+            for (int i = 0; i < mCpuCount; i++) {
+                int freq = mNodes[i].readInt(OFFLINE);
+                if (freq != mLast[i]) {
+                    mLast[i] = freq;
+                    changed = true;
+                }
+            }
+            if (changed) {
+                mInterval = MIN_INTERVAL_MS;
+                mStable = 0;
+                deliver(this, mLast.clone());
+            } else if (++mStable >= STABLE_SAMPLES && mInterval < MAX_INTERVAL_MS) {
+                mInterval = Math.min(mInterval * 2, MAX_INTERVAL_MS);
+                mStable = 0;
+            }
+            mHandler.postDelayed(this, mInterval);
+        }
+
+        void start() {
+            mHandler.post(this);
+        }
+
+        void stop() {
+            mHandler.removeCallbacks(this);
+            mHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    for (SysfsNode node : mNodes) {
+                        node.close();
+                    }
+                    Looper.myLooper().quit();
+                }
+            });
+        }
+    }
+
+    private CpuFrequencySampler(Context context) {
+        mContext = context.getApplicationContext();
+        mCpuCount = countCpus();
+    }
+
+    public static synchronized CpuFrequencySampler getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new CpuFrequencySampler(context);
+        }
+        return sInstance;
+    }
+
+    public int getCpuCount() {
+        return mCpuCount;
+    }
+
+    /**
+     * @return the last frequencies handed out or null if we have not
+     *         sampled yet
+     */
+    public int[] getLatest() {
+        return mLatest;
+    }
+
+    /**
+     * Subscribes listener; it gets the current frequencies right away if
+     * we have them.
+     */
+    public void register(Listener listener) {
+        if (mListeners.contains(listener)) {
+            return;
+        }
+        mListeners.add(listener);
+        if (mLatest != null) {
+            listener.onCpuFrequencies(mLatest);
+        }
+        if (mListeners.size() == 1) {
+            PowerManager pm = (PowerManager) mContext.getSystemService(Context.POWER_SERVICE);
+            mScreenOn = pm.isScreenOn();
+            IntentFilter filter = new IntentFilter(Intent.ACTION_SCREEN_ON);
+            filter.addAction(Intent.ACTION_SCREEN_OFF);
+            mContext.registerReceiver(mScreenReceiver, filter);
+            mReceiverRegistered = true;
+        }
+        updateState();
+    }
+
+    public void unregister(Listener listener) {
+        if (!mListeners.remove(listener)) {
+            return;
+        }
+        if (mListeners.isEmpty() && mReceiverRegistered) {
+            mContext.unregisterReceiver(mScreenReceiver);
+            mReceiverRegistered = false;
+        }
+        updateState();
+    }
+
+    private void updateState() {
+        boolean run = mScreenOn && !mListeners.isEmpty();
+        if (run && mLoop == null) {
+            mLoop = new SampleLoop();
+            mLoop.start();
+        } else if (!run && mLoop != null) {
+            mLoop.stop();
+            mLoop = null;
+            // whatever we have is stale by the time we run again
+            mLatest = null;
+        }
+    }
+
+    private void deliver(final SampleLoop loop, final int[] freqs) {
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (loop != mLoop) {
+                    // stopped while this was in flight
+                    return;
+                }
+                mLatest = freqs;
+                for (int i = mListeners.size() - 1; i >= 0; i--) {
+                    mListeners.get(i).onCpuFrequencies(freqs);
+                }
+            }
+        });
+    }
+
+    private static int countCpus() {
+        String[] cpus = new File(CPU_DIR).list(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.matches("cpu[0-9]+");
+            }
+        });
+        return cpus == null || cpus.length == 0 ? 1 : cpus.length;
+    }
+}
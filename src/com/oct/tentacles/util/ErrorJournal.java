@@ -0,0 +1,253 @@
+package com.oct.tentacles.util;
+
+import android.os.Environment;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Background journal of failed shell commands.
+ *
+ * Callers only append to an in memory ring buffer; a single writer thread
+ * drains it to /sdcard/tentacles/error.txt in batches. Repeats of the same
+ * message inside {@link #RATE_WINDOW_MS} are collapsed into a counter, and
+ * the file is rotated to error.txt.1 once it outgrows {@link #MAX_FILE_SIZE}.
+ */
+public final class ErrorJournal {
+    private static final String TAG = "ErrorJournal";
+
+    public static final String LOG_DIR = "/tentacles";
+    public static final String LOG_NAME = "error.txt";
+
+    private static final int RING_SIZE = 128;
+    private static final long FLUSH_DELAY_MS = 500;
+    private static final long RATE_WINDOW_MS = 10000;
+    private static final int MAX_TRACKED_KEYS = 256;
+    private static final long MAX_FILE_SIZE = 256 * 1024;
+
+    private static ErrorJournal sInstance;
+
+    private final String mLineEnding = System.getProperty("line.separator");
+    private final String[] mRing = new String[RING_SIZE];
+    private int mHead;
+    private int mCount;
+    private int mDropped;
+
+    // key -> when it was last written and how many repeats we swallowed since
+    private final HashMap<String, long[]> mRecent = new HashMap<String, long[]>();
+
+    private final Handler mHandler;
+    private boolean mFlushScheduled;
+
+    private final Runnable mFlush = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    private ErrorJournal() {
+        HandlerThread thread = new HandlerThread(TAG, android.os.Process.THREAD_PRIORITY_BACKGROUND);
+        thread.start();
+        mHandler = new Handler(thread.getLooper());
+    }
+
+    public static synchronized ErrorJournal getInstance() {
+        if (sInstance == null) {
+            sInstance = new ErrorJournal();
+        }
+        return sInstance;
+    }
+
+    public static File getLogFile() {
+        return new File(Environment.getExternalStorageDirectory() + LOG_DIR, LOG_NAME);
+    }
+
+    /**
+     * Queues a message, never blocks on storage.
+     *
+     * @param key     identifies repeats of the same error; messages with an
+     *                equal key inside the rate window are only counted
+     * @param message what goes to the file
+     */
+    public void log(String key, String message) {
+        long now = SystemClock.elapsedRealtime();
+        synchronized (this) {
+            long[] seen = mRecent.get(key);
+            if (seen != null && now - seen[0] < RATE_WINDOW_MS) {
+                seen[1]++;
+                return;
+            }
+            if (seen != null && seen[1] > 0) {
+                push("(next error was suppressed " + seen[1] + " times before)");
+            }
+            if (seen == null) {
+                if (mRecent.size() >= MAX_TRACKED_KEYS) {
+                    expire(now);
+                }
+                seen = new long[2];
+                mRecent.put(key, seen);
+            }
+            seen[0] = now;
+            seen[1] = 0;
+            push(message);
+
+            if (!mFlushScheduled) {
+                mFlushScheduled = true;
+                mHandler.postDelayed(mFlush, FLUSH_DELAY_MS);
+            }
+        }
+    }
+
+    /**
+     * Removes the journal and its rotated copy, on the writer thread so it
+     * is ordered with pending writes.
+     */
+    public void clear() {
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (ErrorJournal.this) {
+                    mHead = 0;
+                    mCount = 0;
+                    mDropped = 0;
+                    mRecent.clear();
+                }
+                File log = getLogFile();
+                log.delete();
+                new File(log.getPath() + ".1").delete();
+            }
+        });
+    }
+
+    /**
+     * Writes everything queued so far and runs callback on the writer
+     * thread afterwards, e.g. to read the file back for a viewer.
+     */
+    public void flushThen(final Runnable callback) {
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                flush();
+                callback.run();
+            }
+        });
+    }
+
+    /**
+     * Reads back the newest part of the journal file. Call from
+     * {@link #flushThen(Runnable)} to include everything queued so far.
+     *
+     * @return up to maxBytes of the journal's tail, empty if there is none
+     */
+    public static String readTail(int maxBytes) {
+        File log = getLogFile();
+        RandomAccessFile file = null;
+        try {
+            file = new RandomAccessFile(log, "r");
+            long length = file.length();
+            int size = (int) Math.min(length, maxBytes);
+            byte[] buf = new byte[size];
+            file.seek(length - size);
+            file.readFully(buf);
+            return new String(buf);
+        } catch (IOException e) {
+            return "";
+        } finally {
+            if (file != null) {
+                try {
+                    file.close();
+                } catch (IOException ignored) {
+                    // let it go
+                }
+            }
+        }
+    }
+
+    // caller holds the lock
+    private void push(String message) {
+        if (mCount == RING_SIZE) {
+            // overwrite the oldest entry
+            mHead = (mHead + 1) % RING_SIZE;
+            mCount--;
+            mDropped++;
+        }
+        mRing[(mHead + mCount) % RING_SIZE] = message;
+        mCount++;
+    }
+
+    // caller holds the lock
+    private void expire(long now) {
+        Iterator<Map.Entry<String, long[]>> it = mRecent.entrySet().iterator();
+        while (it.hasNext()) {
+            if (now - it.next().getValue()[0] >= RATE_WINDOW_MS) {
+                it.remove();
+            }
+        }
+        if (mRecent.size() >= MAX_TRACKED_KEYS) {
+            mRecent.clear();
+        }
+    }
+
+    private void flush() {
+        String[] pending;
+        int dropped;
+        synchronized (this) {
+            mFlushScheduled = false;
+            pending = new String[mCount];
+            for (int i = 0; i < mCount; i++) {
+                pending[i] = mRing[(mHead + i) % RING_SIZE];
+                mRing[(mHead + i) % RING_SIZE] = null;
+            }
+            dropped = mDropped;
+            mHead = 0;
+            mCount = 0;
+            mDropped = 0;
+        }
+        if (pending.length == 0 && dropped == 0) {
+            return;
+        }
+
+        File log = getLogFile();
+        FileWriter writer = null;
+        try {
+            File dir = log.getParentFile();
+            if (!dir.exists()) {
+                dir.mkdirs();
+            }
+            if (log.length() > MAX_FILE_SIZE) {
+                File rotated = new File(log.getPath() + ".1");
+                rotated.delete();
+                log.renameTo(rotated);
+            }
+            writer = new FileWriter(log, true);
+            if (dropped > 0) {
+                writer.write("(" + dropped + " errors dropped, journal overflowed)");
+                writer.write(mLineEnding);
+            }
+            for (String message : pending) {
+                writer.write(message);
+                writer.write(mLineEnding);
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to write error journal", e);
+        } finally {
+            if (writer != null) {
+                try {
+                    writer.close();
+                } catch (IOException ignored) {
+                    // let it go
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,274 @@
+package com.oct.tentacles.util;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+
+/**
+ * Reads files as a stream of chunks or lines instead of one big string.
+ *
+ * Regular files of {@link #MMAP_THRESHOLD} and up (build.prop, hosts,
+ * persist.conf) are memory mapped, everything else, including all of
+ * sysfs and procfs, is read through a plain stream. Every read can be
+ * capped with a byte limit.
+ */
+public final class FileStreamer {
+    private static final String TAG = "FileStreamer";
+
+    public static final long NO_LIMIT = -1;
+    public static final long MMAP_THRESHOLD = 64 * 1024;
+
+    private static final int CHUNK_SIZE = 8192;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    public interface ChunkConsumer {
+        /**
+         * @return false to stop reading
+         */
+        boolean onChunk(byte[] buffer, int offset, int length);
+    }
+
+    public interface LineConsumer {
+        /**
+         * @param line without the line terminator
+         * @return false to stop reading
+         */
+        boolean onLine(String line);
+    }
+
+    private FileStreamer() {
+    }
+
+    /**
+     * Feeds the file to consumer in chunks. The buffer is reused between
+     * calls, copy what you want to keep.
+     *
+     * @param maxBytes stop after that many bytes, or {@link #NO_LIMIT}
+     * @return false if the file could not be read
+     */
+    public static boolean readChunks(String path, long maxBytes, ChunkConsumer consumer) {
+        File file = new File(path);
+        try {
+            if (file.isFile() && file.length() >= MMAP_THRESHOLD) {
+                readMapped(file, maxBytes, consumer);
+            } else {
+                readStream(file, maxBytes, consumer);
+            }
+            return true;
+        } catch (IOException e) {
+            Log.e(TAG, "Error reading file: " + path, e);
+            return false;
+        }
+    }
+
+    /**
+     * Feeds the file to consumer line by line.
+     *
+     * @return false if the file could not be read
+     */
+    public static boolean readLines(String path, long maxBytes, LineConsumer consumer) {
+        LineSplitter splitter = new LineSplitter(consumer);
+        if (!readChunks(path, maxBytes, splitter)) {
+            return false;
+        }
+        splitter.finish();
+        return true;
+    }
+
+    /**
+     * Like {@link #readLines} but for files only root (or the shell) can
+     * read; the output of cat is streamed, not collected. Lines are handed
+     * to consumer on a background thread, in order.
+     */
+    public static boolean readLinesViaShell(String path, boolean useSu, final long maxBytes,
+            final LineConsumer consumer) {
+        ChildProcess.OutputListener listener = new ChildProcess.OutputListener() {
+            private long mBytes;
+            private boolean mStopped;
+
+            @Override
+            public void onStdout(String line) {
+                if (mStopped) {
+                    return;
+                }
+                mBytes += line.length() + 1;
+                if (maxBytes != NO_LIMIT && mBytes > maxBytes) {
+                    mStopped = true;
+                    return;
+                }
+                mStopped = !consumer.onLine(line);
+            }
+
+            @Override
+            public void onStderr(String line) {
+            }
+        };
+        String command = "cat " + path;
+        // nothing retained, the consumer gets everything
+        ChildProcess proc = useSu
+                ? CMDProcessorAOKP.startSuCommand(command, listener, 0)
+                : CMDProcessorAOKP.startShellCommand(command, listener, 0);
+        proc.waitFinished();
+        return proc.getResult().success();
+    }
+
+    /**
+     * Reads a whole file into one string, sized up front.
+     *
+     * @return the contents or null if the file could not be read
+     */
+    public static String readAll(String path, long maxBytes) {
+        File file = new File(path);
+        long size = file.length();
+        if (maxBytes != NO_LIMIT && size > maxBytes) {
+            size = maxBytes;
+        }
+        final ByteArray out = new ByteArray((int) Math.max(size, CHUNK_SIZE));
+        boolean ok = readChunks(path, maxBytes, new ChunkConsumer() {
+            @Override
+            public boolean onChunk(byte[] buffer, int offset, int length) {
+                out.append(buffer, offset, length);
+                return true;
+            }
+        });
+        return ok ? out.decode() : null;
+    }
+
+    private static void readStream(File file, long maxBytes, ChunkConsumer consumer)
+            throws IOException {
+        InputStream in = new FileInputStream(file);
+        try {
+            byte[] buf = new byte[CHUNK_SIZE];
+            long remaining = maxBytes == NO_LIMIT ? Long.MAX_VALUE : maxBytes;
+            int len;
+            while (remaining > 0
+                    && (len = in.read(buf, 0, (int) Math.min(buf.length, remaining))) != -1) {
+                remaining -= len;
+                if (!consumer.onChunk(buf, 0, len)) {
+                    break;
+                }
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    private static void readMapped(File file, long maxBytes, ChunkConsumer consumer)
+            throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            long size = channel.size();
+            if (maxBytes != NO_LIMIT && size > maxBytes) {
+                size = maxBytes;
+            }
+            MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            byte[] buf = new byte[CHUNK_SIZE];
+            while (map.hasRemaining()) {
+                int len = Math.min(buf.length, map.remaining());
+                map.get(buf, 0, len);
+                if (!consumer.onChunk(buf, 0, len)) {
+                    break;
+                }
+            }
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Growable byte array that decodes without an extra copy.
+     */
+    private static final class ByteArray {
+        private byte[] mBytes;
+        private int mSize;
+
+        ByteArray(int capacity) {
+            mBytes = new byte[capacity];
+        }
+
+        void append(byte[] buffer, int offset, int length) {
+            if (mSize + length > mBytes.length) {
+                byte[] bigger = new byte[Math.max(mBytes.length * 2, mSize + length)];
+                System.arraycopy(mBytes, 0, bigger, 0, mSize);
+                mBytes = bigger;
+            }
+            System.arraycopy(buffer, offset, mBytes, mSize, length);
+            mSize += length;
+        }
+
+        void clear() {
+            mSize = 0;
+        }
+
+        int size() {
+            return mSize;
+        }
+
+        String decode() {
+            return new String(mBytes, 0, mSize, UTF_8);
+        }
+
+        /**
+         * @return the contents without a trailing '\r'
+         */
+        String decodeLine() {
+            int end = mSize;
+            if (end > 0 && mBytes[end - 1] == '\r') {
+                end--;
+            }
+            return new String(mBytes, 0, end, UTF_8);
+        }
+    }
+
+    /**
+     * Cuts chunks into lines; '\n' never shows up inside a multi byte
+     * UTF-8 char, so splitting on the raw bytes is safe.
+     */
+    private static final class LineSplitter implements ChunkConsumer {
+        private final LineConsumer mConsumer;
+        private final ByteArray mLine = new ByteArray(256);
+        private boolean mStopped;
+
+        LineSplitter(LineConsumer consumer) {
+            mConsumer = consumer;
+        }
+
+        @Override
+        public boolean onChunk(byte[] buffer, int offset, int length) {
+            int start = offset;
+            int end = offset + length;
+            for (int i = offset; i < end; i++) {
+                if (buffer[i] == '\n') {
+                    mLine.append(buffer, start, i - start);
+                    start = i + 1;
+                    if (!deliver()) {
+                        return false;
+                    }
+                }
+            }
+            mLine.append(buffer, start, end - start);
+            return true;
+        }
+
+        void finish() {
+            if (!mStopped && mLine.size() > 0) {
+                deliver();
+            }
+        }
+
+        private boolean deliver() {
+            String line = mLine.decodeLine();
+            mLine.clear();
+            mStopped = !mConsumer.onLine(line);
+            return !mStopped;
+        }
+    }
+}
@@ -1,16 +1,10 @@
 
 package com.oct.tentacles.util;
 
-import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
-import java.io.FileReader;
 import java.io.FileWriter;
-import java.io.IOException;
 import java.util.Date;
-import java.util.Properties;
 
 import android.content.Context;
 import android.content.pm.PackageManager;
@@ -21,8 +15,6 @@ import android.text.format.DateFormat;
 import android.util.Log;
 import android.widget.Toast;
 
-import com.oct.tentacles.util.CMDProcessor.CommandResult;
-
 public class Helpers {
 
     private static final String TAG = "Helpers";
@@ -101,66 +93,53 @@ public class Helpers {
 
     public static String[] getMounts(final String path)
     {
-        try
-        {
-            BufferedReader br = new BufferedReader(new FileReader("/proc/mounts"), 256);
-            String line = null;
-            while ((line = br.readLine()) != null)
-            {
-                if (line.contains(path))
-                {
-                    return line.split(" ");
-                }
-            }
-            br.close();
-        } catch (FileNotFoundException e) {
-            Log.d(TAG, "/proc/mounts does not exist");
-        } catch (IOException e) {
-            Log.d(TAG, "Error reading /proc/mounts");
-        }
-        return null;
+        final MountTable.Entry entry = MountTable.getInstance().find(path);
+        return entry == null ? null : entry.getFields();
     }
 
     public static boolean getMount(final String mount)
     {
+        final MountTable table = MountTable.getInstance();
+        final MountTable.Entry system = table.get("/system");
+        if (system != null && system.isRw() == "rw".equals(mount))
+        {
+            // already there, skip the remount
+            return true;
+        }
         final CMDProcessor cmd = new CMDProcessor();
-        final String mounts[] = getMounts("/system");
-        if (mounts != null
-                && mounts.length >= 3)
+        boolean success = false;
+        if (system != null)
         {
-            final String device = mounts[0];
-            final String path = mounts[1];
-            final String point = mounts[2];
-            if (cmd.su.runWaitFor(
-                    "mount -o " + mount + ",remount -t " + point + " " + device + " " + path)
-                    .success())
-            {
-                return true;
-            }
+            success = cmd.pool.runWaitFor("mount -o " + mount + ",remount -t "
+                    + system.fsType + " " + system.device + " " + system.mountPoint)
+                    .success();
+        }
+        if (!success)
+        {
+            success = cmd.pool.runWaitFor("busybox mount -o remount," + mount + " /system")
+                    .success();
         }
-        return (cmd.su.runWaitFor("busybox mount -o remount," + mount + " /system").success());
+        table.invalidate();
+        return success;
     }
 
     public static String getFile(final String filename) {
-        String s = "";
         final File f = new File(filename);
 
-        if (f.exists() && f.canRead()) {
-            try {
-                final BufferedReader br = new BufferedReader(new FileReader(f),
-                        256);
-                String buffer = null;
-                while ((buffer = br.readLine()) != null) {
-                    s += buffer + "\n";
-                }
-
-                br.close();
-            } catch (final Exception e) {
-                Log.e(TAG, "Error reading file: " + filename, e);
-                s = null;
-            }
+        if (!f.exists() || !f.canRead()) {
+            return "";
         }
-        return s;
+        // size it up front, appending line by line stays linear
+        final StringBuilder sb = new StringBuilder((int) Math.min(f.length(), Integer.MAX_VALUE));
+        final boolean ok = FileStreamer.readLines(filename, FileStreamer.NO_LIMIT,
+                new FileStreamer.LineConsumer() {
+                    @Override
+                    public boolean onLine(String line) {
+                        sb.append(line).append('\n');
+                        return true;
+                    }
+                });
+        return ok ? sb.toString() : null;
     }
 
     public static void writeNewFile(String filePath, String fileContents) {
@@ -182,49 +161,15 @@ public class Helpers {
     }
 
     public static String readOneLine(String fname) {
-        BufferedReader br;
-        String line = null;
-        try {
-            br = new BufferedReader(new FileReader(fname), 512);
-            try {
-                line = br.readLine();
-            } finally {
-                br.close();
-            }
-        } catch (Exception e) {
-            Log.e(TAG, "IO Exception when reading sys file", e);
-            // attempt to do magic!
-            return readFileViaShell(fname, true);
-        }
-        return line;
+        return PathAccessRouter.getInstance().readLine(fname);
     }
 
     public static String readFileViaShell(String filePath, boolean useSu) {
-        CMDProcessor.CommandResult cr = null;
-        if (useSu) {
-            cr = new CMDProcessor().su.runWaitFor("cat " + filePath);
-        } else {
-            cr = new CMDProcessor().sh.runWaitFor("cat " + filePath);
-        }
-        if (cr.success())
-            return cr.stdout;
-        return null;
+        return ShellReadCache.getInstance().readFile(filePath, useSu);
     }
 
     public static boolean writeOneLine(String fname, String value) {
-        try {
-            FileWriter fw = new FileWriter(fname);
-            try {
-                fw.write(value);
-            } finally {
-                fw.close();
-            }
-        } catch (IOException e) {
-            String Error = "Error writing to " + fname + ". Exception: ";
-            Log.e(TAG, Error, e);
-            return false;
-        }
-        return true;
+        return PathAccessRouter.getInstance().writeLine(fname, value);
     }
 
     public static String[] getAvailableIOSchedulers() {
@@ -337,8 +282,14 @@ public class Helpers {
         new CMDProcessor().su.run("pkill -TERM -f com.android.systemui");
     }
 
+    /**
+     * Waits for setprop to finish before dropping the cached value, so a
+     * concurrent read can't cache the old one again. Don't call on the UI
+     * thread.
+     */
     public static void setSystemProp(String prop, String val) {
-        new CMDProcessor().su.run("setprop " + prop + " " + val);
+        new CMDProcessor().su.runWaitFor("setprop " + prop + " " + val);
+        ShellReadCache.getInstance().invalidateProp(prop);
     }
 
     public static String getSystemProp(String prop, String def) {
@@ -347,12 +298,7 @@ public class Helpers {
     }
 
     private static String getSystemProp(String prop) {
-        CommandResult cr = new CMDProcessor().sh.runWaitFor("getprop " + prop);
-        if (cr.success()) {
-            return cr.stdout;
-        } else {
-            return null;
-        }
+        return ShellReadCache.getInstance().getProp(prop);
     }
 
     /*
@@ -366,7 +312,7 @@ public class Helpers {
         String REMOUNT_CMD = "busybox mount -o %s,remount -t yaffs2 /dev/block/mtdblock1 /system";
         final CMDProcessor cmd = new CMDProcessor();
         Log.d(TAG, "Remounting /system " + read_value);
-        return cmd.su.runWaitFor(String.format(REMOUNT_CMD, read_value)).success();
+        return cmd.pool.runWaitFor(String.format(REMOUNT_CMD, read_value)).success();
     }
 
     /*
@@ -377,26 +323,9 @@ public class Helpers {
      * @returns String value of @param:prop
      */
     public static String findBuildPropValueOf(String prop) {
-        String mBuildPath = "/system/build.prop";
         String DISABLE = "disable";
-        String value = null;
-        try {
-            //create properties construct and load build.prop
-            Properties mProps = new Properties();
-            mProps.load(new FileInputStream(mBuildPath));
-            //get the property
-            value = mProps.getProperty(prop, DISABLE);
-            Log.d(TAG, String.format("Helpers:findBuildPropValueOf found {%s} with the value (%s)", prop, value));
-        } catch (IOException ioe) {
-            Log.d(TAG, "failed to load input stream");
-        } catch (NullPointerException npe) {
-            //swallowed thrown by ill formatted requests
-        }
-
-        if (value != null) {
-            return value;
-        } else {
-            return DISABLE;
-        }
+        String value = PropIndex.getInstance().get(PropIndex.SOURCE_BUILD, prop, DISABLE);
+        Log.d(TAG, String.format("Helpers:findBuildPropValueOf found {%s} with the value (%s)", prop, value));
+        return value;
     }
 }
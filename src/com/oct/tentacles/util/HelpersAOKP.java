@@ -9,12 +9,7 @@ import android.os.SystemProperties;
 import android.util.Log;
 import android.widget.Toast;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.FileReader;
-import java.io.FileWriter;
-import java.io.IOException;
 import java.util.Date;
 
 // don't show unavoidable warnings
@@ -105,69 +100,33 @@ public class HelpersAOKP {
     }
 
     public static String[] getMounts(CharSequence path) {
-        BufferedReader bufferedReader = null;
-        try {
-            bufferedReader = new BufferedReader(new FileReader("/proc/mounts"), 256);
-            String line;
-            while ((line = bufferedReader.readLine()) != null) {
-                if (line.contains(path)) {
-                    return line.split(" ");
-                }
-            }
-        } catch (FileNotFoundException ignored) {
-            Log.d(TAG, "/proc/mounts does not exist");
-        } catch (IOException ignored) {
-            Log.d(TAG, "Error reading /proc/mounts");
-        } finally {
-            if (bufferedReader != null) {
-                try {
-                    bufferedReader.close();
-                } catch (IOException ignored) {
-                    // ignored
-                }
-            }
-        }
-        return null;
+        MountTable.Entry entry = MountTable.getInstance().find(path.toString());
+        return entry == null ? null : entry.getFields();
     }
 
     public static boolean getMount(String mount) {
-        String[] mounts = getMounts("/system");
-        if (mounts != null && mounts.length >= 3) {
-            String device = mounts[0];
-            String path = mounts[1];
-            String point = mounts[2];
-            String preferredMountCmd = new String(
-                    "mount -o " + mount + ",remount -t " + point + ' ' + device + ' ' + path);
-            if (CMDProcessorAOKP.runSuCommand(preferredMountCmd).success()) {
-                return true;
-            }
+        MountTable table = MountTable.getInstance();
+        MountTable.Entry system = table.get("/system");
+        if (system != null && system.isRw() == "rw".equals(mount)) {
+            // already mounted that way
+            return true;
         }
-        String fallbackMountCmd = new String("busybox mount -o remount," + mount + " /system");
-        return CMDProcessorAOKP.runSuCommand(fallbackMountCmd).success();
+        boolean success = false;
+        if (system != null) {
+            String preferredMountCmd = "mount -o " + mount + ",remount -t " + system.fsType
+                    + ' ' + system.device + ' ' + system.mountPoint;
+            success = CMDProcessorAOKP.runSuCommand(preferredMountCmd).success();
+        }
+        if (!success) {
+            String fallbackMountCmd = "busybox mount -o remount," + mount + " /system";
+            success = CMDProcessorAOKP.runSuCommand(fallbackMountCmd).success();
+        }
+        table.invalidate();
+        return success;
     }
 
     public static String readOneLine(String fname) {
-        BufferedReader br = null;
-        String line = null;
-        try {
-            br = new BufferedReader(new FileReader(fname), 1024);
-            line = br.readLine();
-        } catch (FileNotFoundException ignored) {
-            Log.d(TAG, "File was not found! trying via shell...");
-            return readFileViaShell(fname, true);
-        } catch (IOException e) {
-            Log.d(TAG, "IOException while reading system file", e);
-            return readFileViaShell(fname, true);
-        } finally {
-            if (br != null) {
-                try {
-                    br.close();
-                } catch (IOException ignored) {
-                    // failed to close reader
-                }
-            }
-        }
-        return line;
+        return PathAccessRouter.getInstance().readLine(fname);
     }
 
     public static String readFileViaShell(String filePath, boolean useSu) {
@@ -177,24 +136,7 @@ public class HelpersAOKP {
     }
 
     public static boolean writeOneLine(String filename, String value) {
-        FileWriter fileWriter = null;
-        try {
-            fileWriter = new FileWriter(filename);
-            fileWriter.write(value);
-        } catch (IOException e) {
-            String Error = "Error writing { " + value + " } to file: " + filename;
-            Log.e(TAG, Error, e);
-            return false;
-        } finally {
-            if (fileWriter != null) {
-                try {
-                    fileWriter.close();
-                } catch (IOException ignored) {
-                    // failed to close writer
-                }
-            }
-        }
-        return true;
+        return PathAccessRouter.getInstance().writeLine(filename, value);
     }
 
     public static String[] getAvailableIOSchedulers() {
@@ -303,8 +245,14 @@ public class HelpersAOKP {
         CMDProcessorAOKP.startSuCommand("pkill -TERM -f com.android.systemui");
     }
 
+    /**
+     * Waits for setprop to finish before dropping the cached value, so a
+     * concurrent read can't cache the old one again. Don't call on the UI
+     * thread.
+     */
     public static void setSystemProp(String prop, String val) {
-        CMDProcessorAOKP.startSuCommand("setprop " + prop + " " + val);
+        CMDProcessorAOKP.runSuCommand("setprop " + prop + " " + val);
+        ShellReadCache.getInstance().invalidateProp(prop);
     }
 
     public static String getSystemProp(String prop, String def) {
@@ -0,0 +1,213 @@
+package com.oct.tentacles.util;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.HashMap;
+
+import libcore.io.Libcore;
+import libcore.io.OsConstants;
+import libcore.io.StructPollfd;
+
+/**
+ * Parsed copy of /proc/mounts.
+ *
+ * The table is only read again once the kernel says it changed: a daemon
+ * thread waits in poll() on /proc/mounts, which wakes up with POLLPRI on
+ * every mount or remount. Where that is not available the table expires
+ * after {@link #FALLBACK_TTL_MS} instead. Lookups by mount point are a map
+ * get.
+ */
+public final class MountTable {
+    private static final String TAG = "MountTable";
+
+    private static final String PROC_MOUNTS = "/proc/mounts";
+    private static final long FALLBACK_TTL_MS = 1000;
+
+    private static MountTable sInstance;
+
+    /**
+     * One line of /proc/mounts.
+     */
+    public static final class Entry {
+        public final String device;
+        public final String mountPoint;
+        public final String fsType;
+        public final String options;
+        private final String[] mFields;
+
+        Entry(String[] fields) {
+            mFields = fields;
+            device = fields[0];
+            mountPoint = fields[1];
+            fsType = fields[2];
+            options = fields.length > 3 ? fields[3] : "";
+        }
+
+        public boolean isRw() {
+            for (String option : options.split(",")) {
+                if (option.equals("rw")) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * @return the raw whitespace separated fields of the line
+         */
+        public String[] getFields() {
+            return mFields.clone();
+        }
+    }
+
+    private HashMap<String, Entry> mEntries;
+    private volatile boolean mStale = true;
+    private boolean mWatching;
+    private long mReadAt;
+    private int mReads;
+
+    private MountTable() {
+        startWatcher();
+    }
+
+    public static synchronized MountTable getInstance() {
+        if (sInstance == null) {
+            sInstance = new MountTable();
+        }
+        return sInstance;
+    }
+
+    /**
+     * @return what is mounted on mountPoint or null if nothing is
+     */
+    public synchronized Entry get(String mountPoint) {
+        return getEntries().get(mountPoint);
+    }
+
+    /**
+     * Like the old line.contains() lookup: an exact mount point match if
+     * there is one, otherwise the first entry whose line mentions path.
+     */
+    public synchronized Entry find(String path) {
+        HashMap<String, Entry> entries = getEntries();
+        Entry entry = entries.get(path);
+        if (entry != null) {
+            return entry;
+        }
+        for (Entry e : entries.values()) {
+            if (e.device.contains(path) || e.mountPoint.contains(path)
+                    || e.fsType.contains(path) || e.options.contains(path)) {
+                return e;
+            }
+        }
+        return null;
+    }
+
+    public boolean isSystemRw() {
+        Entry system = get("/system");
+        return system != null && system.isRw();
+    }
+
+    /**
+     * Makes the next lookup read /proc/mounts again; only needed where the
+     * kernel can't tell us.
+     */
+    public void invalidate() {
+        mStale = true;
+    }
+
+    /**
+     * @return how often /proc/mounts was parsed, for diagnostics
+     */
+    public synchronized int getReadCount() {
+        return mReads;
+    }
+
+    // caller holds the lock
+    private HashMap<String, Entry> getEntries() {
+        boolean expired = !mWatching
+                && SystemClock.elapsedRealtime() - mReadAt > FALLBACK_TTL_MS;
+        if (mEntries == null || mStale || expired) {
+            // clear first, a change while we read marks it stale again
+            mStale = false;
+            mEntries = read();
+            mReadAt = SystemClock.elapsedRealtime();
+            mReads++;
+        }
+        return mEntries;
+    }
+
+    private static HashMap<String, Entry> read() {
+        HashMap<String, Entry> entries = new HashMap<String, Entry>();
+        BufferedReader br = null;
+        try {
+            br = new BufferedReader(new FileReader(PROC_MOUNTS), 8192);
+            String line;
+            while ((line = br.readLine()) != null) {
+                String[] fields = line.split(" ");
+                if (fields.length >= 3) {
+                    // later mounts hide earlier ones on the same point
+                    entries.put(fields[1], new Entry(fields));
+                }
+            }
+        } catch (IOException e) {
+            Log.d(TAG, "Error reading " + PROC_MOUNTS);
+        } finally {
+            if (br != null) {
+                try {
+                    br.close();
+                } catch (IOException ignored) {
+                    // failed to close reader
+                }
+            }
+        }
+        return entries;
+    }
+
+    private void startWatcher() {
+        final FileInputStream in;
+        try {
+            in = new FileInputStream(PROC_MOUNTS);
+        } catch (IOException e) {
+            Log.d(TAG, "Can't watch " + PROC_MOUNTS + ", falling back to expiry");
+            return;
+        }
+        mWatching = true;
+        Thread watcher = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    StructPollfd[] fds = { new StructPollfd() };
+                    fds[0].fd = in.getFD();
+                    fds[0].events = (short) (OsConstants.POLLPRI | OsConstants.POLLERR);
+                    while (true) {
+                        fds[0].revents = 0;
+                        if (Libcore.os.poll(fds, -1) > 0) {
+                            // polling resets the event, no need to read
+                            mStale = true;
+                        }
+                    }
+                } catch (Throwable t) {
+                    // ErrnoException, or no libcore poll on this build
+                    Log.w(TAG, "Stopped watching " + PROC_MOUNTS, t);
+                    synchronized (MountTable.this) {
+                        mWatching = false;
+                    }
+                } finally {
+                    try {
+                        in.close();
+                    } catch (IOException ignored) {
+                        // failed to close
+                    }
+                }
+            }
+        }, TAG);
+        watcher.setDaemon(true);
+        watcher.start();
+    }
+}
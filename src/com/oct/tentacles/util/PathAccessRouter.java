@@ -0,0 +1,147 @@
+package com.oct.tentacles.util;
+
+import android.util.Log;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.HashMap;
+
+/**
+ * Decides once per path whether a sysfs/procfs node can be read or written
+ * by us directly or needs root, and sends every later access straight to
+ * that route.
+ *
+ * Paths are probed with access checks, not failed opens. If a direct
+ * access is denied anyway (SELinux does not show in the access checks)
+ * the path is switched to root for good. Decisions live as long as the
+ * process, so never across a reboot.
+ */
+public final class PathAccessRouter {
+    private static final String TAG = "PathAccessRouter";
+    private static final boolean DEBUG = false;
+
+    public static final int ROUTE_DIRECT = 1;
+    public static final int ROUTE_ROOT = 2;
+
+    private static PathAccessRouter sInstance;
+
+    private final HashMap<String, Integer> mReadRoutes = new HashMap<String, Integer>();
+    private final HashMap<String, Integer> mWriteRoutes = new HashMap<String, Integer>();
+
+    private PathAccessRouter() {
+    }
+
+    public static synchronized PathAccessRouter getInstance() {
+        if (sInstance == null) {
+            sInstance = new PathAccessRouter();
+        }
+        return sInstance;
+    }
+
+    /**
+     * @return the first line of path or null if it could not be read at all
+     */
+    public String readLine(String path) {
+        if (getReadRoute(path) == ROUTE_DIRECT) {
+            try {
+                return readDirect(path);
+            } catch (IOException e) {
+                Log.d(TAG, "Direct read of " + path + " denied, using root from now on");
+                setRoute(mReadRoutes, path, ROUTE_ROOT);
+            }
+        }
+        String content = ShellReadCache.getInstance().readFile(path, true);
+        if (content == null) {
+            return null;
+        }
+        int end = content.indexOf('\n');
+        return end < 0 ? content : content.substring(0, end);
+    }
+
+    /**
+     * Overwrites path with value.
+     *
+     * @return false if neither route could write it
+     */
+    public boolean writeLine(String path, String value) {
+        ShellReadCache.getInstance().invalidateFile(path);
+        if (getWriteRoute(path) == ROUTE_DIRECT) {
+            try {
+                writeDirect(path, value);
+                return true;
+            } catch (IOException e) {
+                Log.d(TAG, "Direct write of " + path + " denied, using root from now on");
+                setRoute(mWriteRoutes, path, ROUTE_ROOT);
+            }
+        }
+        boolean ok = new CMDProcessor().pool.runWaitFor(
+                "echo '" + value.replace("'", "'\\''") + "' > " + path).success();
+        if (!ok) {
+            Log.e(TAG, "Error writing " + value + " to " + path);
+        }
+        return ok;
+    }
+
+    public int getReadRoute(String path) {
+        return route(mReadRoutes, path, false);
+    }
+
+    public int getWriteRoute(String path) {
+        return route(mWriteRoutes, path, true);
+    }
+
+    /**
+     * Forget the decisions for path, e.g. after changing its permissions.
+     */
+    public synchronized void invalidate(String path) {
+        mReadRoutes.remove(path);
+        mWriteRoutes.remove(path);
+    }
+
+    public synchronized void invalidateAll() {
+        mReadRoutes.clear();
+        mWriteRoutes.clear();
+    }
+
+    private synchronized int route(HashMap<String, Integer> routes, String path,
+            boolean write) {
+        Integer route = routes.get(path);
+        if (route == null) {
+            File file = new File(path);
+            if (!file.exists()) {
+                // maybe only root can see it, maybe it shows up later
+                return ROUTE_ROOT;
+            }
+            boolean direct = write ? file.canWrite() : file.canRead();
+            route = direct ? ROUTE_DIRECT : ROUTE_ROOT;
+            routes.put(path, route);
+            if (DEBUG) Log.d(TAG, (write ? "write " : "read ") + path + " -> " + route);
+        }
+        return route;
+    }
+
+    private synchronized void setRoute(HashMap<String, Integer> routes, String path, int route) {
+        routes.put(path, route);
+    }
+
+    private static String readDirect(String path) throws IOException {
+        BufferedReader br = new BufferedReader(new FileReader(path), 512);
+        try {
+            return br.readLine();
+        } finally {
+            br.close();
+        }
+    }
+
+    private static void writeDirect(String path, String value) throws IOException {
+        FileWriter fw = new FileWriter(path);
+        try {
+            fw.write(value);
+        } finally {
+            fw.close();
+        }
+    }
+}
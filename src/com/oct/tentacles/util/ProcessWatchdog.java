@@ -0,0 +1,190 @@
+package com.oct.tentacles.util;
+
+import android.os.CancellationSignal;
+import android.util.Log;
+
+import java.lang.reflect.Field;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Kills a child process, and everything it spawned, once it runs past its
+ * deadline or its {@link CancellationSignal} is cancelled.
+ *
+ * The waiting side keeps blocking in {@link Process#waitFor()} as usual; the
+ * kill is what wakes it up. Afterwards it asks the {@link Guard} whether the
+ * exit was ours and reports {@link #EXIT_TIMED_OUT} or {@link #EXIT_CANCELLED}
+ * instead of the signal exit value.
+ */
+public final class ProcessWatchdog {
+    private static final String TAG = "ProcessWatchdog";
+
+    public static final long NO_TIMEOUT = 0;
+
+    // never a real exit value, those are 0-255
+    public static final int EXIT_TIMED_OUT = -2;
+    public static final int EXIT_CANCELLED = -3;
+
+    private static final int ARMED = 0;
+    private static final int RELEASED = 1;
+
+    private static final long KILL_WAIT_MS = 2000;
+
+    private static final ScheduledExecutorService sTimer =
+            Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, TAG);
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+
+    private ProcessWatchdog() {
+        // Cannot instantiate this class
+        throw new AssertionError();
+    }
+
+    public static class Guard implements CancellationSignal.OnCancelListener {
+        private final Process mProcess;
+        private final AtomicInteger mState = new AtomicInteger(ARMED);
+        private CancellationSignal mSignal;
+        private ScheduledFuture<?> mDeadline;
+
+        Guard(Process process) {
+            mProcess = process;
+        }
+
+        /**
+         * Kills the process right away on the calling thread, for waiters
+         * that got interrupted.
+         */
+        public void cancel() {
+            fire(EXIT_CANCELLED);
+        }
+
+        /**
+         * Disarms the guard once the process exited on its own. Must be
+         * called by every waiter.
+         */
+        public void release() {
+            mState.compareAndSet(ARMED, RELEASED);
+            if (mDeadline != null) {
+                mDeadline.cancel(false);
+            }
+            if (mSignal != null) {
+                mSignal.setOnCancelListener(null);
+            }
+        }
+
+        /**
+         * @return true if the process was killed by us
+         */
+        public boolean fired() {
+            return mState.get() < 0;
+        }
+
+        /**
+         * @return {@link #EXIT_TIMED_OUT} or {@link #EXIT_CANCELLED}, only
+         *         meaningful if {@link #fired()}
+         */
+        public int getReason() {
+            return mState.get();
+        }
+
+        @Override
+        public void onCancel() {
+            // usually called on the UI thread, don't fork su there
+            sTimer.execute(new Runnable() {
+                @Override
+                public void run() {
+                    fire(EXIT_CANCELLED);
+                }
+            });
+        }
+
+        private void fire(int reason) {
+            if (mState.compareAndSet(ARMED, reason)) {
+                Log.w(TAG, "Killing child, reason=" + reason);
+                killTree(mProcess);
+            }
+        }
+    }
+
+    /**
+     * Starts watching a process.
+     *
+     * @param timeoutMs deadline from now or {@link #NO_TIMEOUT}
+     * @param signal    optional cancellation token
+     */
+    public static Guard watch(Process process, long timeoutMs, CancellationSignal signal) {
+        final Guard guard = new Guard(process);
+        if (timeoutMs > 0) {
+            guard.mDeadline = sTimer.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    guard.fire(EXIT_TIMED_OUT);
+                }
+            }, timeoutMs, TimeUnit.MILLISECONDS);
+        }
+        if (signal != null) {
+            guard.mSignal = signal;
+            // fires right away if it is already cancelled
+            signal.setOnCancelListener(guard);
+        }
+        return guard;
+    }
+
+    /**
+     * Kills the children of process, deepest first so nothing gets
+     * reparented to init before we find it, then the process itself.
+     *
+     * Children of su run as root so this goes through a one shot su rather
+     * than the pool, which may be the very thing that hung. Commands that
+     * su hands to a daemon are not our descendants; those die with their
+     * pipes once the su client is gone.
+     */
+    static void killTree(Process process) {
+        int pid = getPid(process);
+        if (pid > 0) {
+            String script = "k() { local d a b c p; for d in /proc/[0-9]*; do "
+                    + "read -r a b c p < $d/stat 2>/dev/null || continue; "
+                    + "if [ \"$p\" = \"$1\" ]; then k ${d#/proc/}; kill -9 ${d#/proc/}; fi; "
+                    + "done; }; k " + pid;
+            try {
+                Process killer = Runtime.getRuntime().exec(new String[] { "su", "-c", script });
+                long deadline = System.currentTimeMillis() + KILL_WAIT_MS;
+                while (!hasExited(killer) && System.currentTimeMillis() < deadline) {
+                    Thread.sleep(20);
+                }
+                killer.destroy();
+            } catch (Exception e) {
+                Log.e(TAG, "Failed to kill children of " + pid, e);
+            }
+        }
+        process.destroy();
+    }
+
+    private static boolean hasExited(Process process) {
+        try {
+            process.exitValue();
+            return true;
+        } catch (IllegalThreadStateException e) {
+            return false;
+        }
+    }
+
+    private static int getPid(Process process) {
+        try {
+            Field field = process.getClass().getDeclaredField("pid");
+            field.setAccessible(true);
+            return field.getInt(process);
+        } catch (Exception e) {
+            return -1;
+        }
+    }
+}
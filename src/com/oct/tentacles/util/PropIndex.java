@@ -0,0 +1,174 @@
+package com.oct.tentacles.util;
+
+import android.os.SystemProperties;
+import android.util.Log;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Lookups in build.prop, default.prop and the live property namespace
+ * through one API.
+ *
+ * The prop files are parsed once into an immutable map, which is reused
+ * for as long as the file's mtime and size stay the same. Checking several
+ * props costs a single parse, or a single stat when nothing changed.
+ */
+public final class PropIndex {
+    private static final String TAG = "PropIndex";
+
+    public static final int SOURCE_BUILD = 0;
+    public static final int SOURCE_DEFAULT = 1;
+    /** what getprop shows, read in process */
+    public static final int SOURCE_LIVE = 2;
+
+    private static final String[] PATHS = { "/system/build.prop", "/default.prop" };
+
+    private static PropIndex sInstance;
+
+    private static final class Snapshot {
+        final long mtime;
+        final long size;
+        final Map<String, String> props;
+
+        Snapshot(long mtime, long size, Map<String, String> props) {
+            this.mtime = mtime;
+            this.size = size;
+            this.props = props;
+        }
+    }
+
+    private final Snapshot[] mSnapshots = new Snapshot[PATHS.length];
+    private int mParses;
+
+    private PropIndex() {
+    }
+
+    public static synchronized PropIndex getInstance() {
+        if (sInstance == null) {
+            sInstance = new PropIndex();
+        }
+        return sInstance;
+    }
+
+    /**
+     * @return the value or null if source doesn't have key
+     */
+    public String get(int source, String key) {
+        if (source == SOURCE_LIVE) {
+            return getLive(key);
+        }
+        return getProps(source).get(key);
+    }
+
+    public String get(int source, String key, String def) {
+        String value = get(source, key);
+        return value == null ? def : value;
+    }
+
+    /**
+     * Looks up several keys with a single check of the file.
+     *
+     * @return values in the order of keys, null where missing
+     */
+    public String[] getAll(int source, String... keys) {
+        String[] values = new String[keys.length];
+        if (source == SOURCE_LIVE) {
+            for (int i = 0; i < keys.length; i++) {
+                values[i] = getLive(keys[i]);
+            }
+            return values;
+        }
+        Map<String, String> props = getProps(source);
+        for (int i = 0; i < keys.length; i++) {
+            values[i] = props.get(keys[i]);
+        }
+        return values;
+    }
+
+    /**
+     * @return every prop of a file source, the map can't be modified
+     */
+    public synchronized Map<String, String> getProps(int source) {
+        String path = PATHS[source];
+        File file = new File(path);
+        long mtime = file.lastModified();
+        long size = file.length();
+        Snapshot snapshot = mSnapshots[source];
+        if (snapshot == null || snapshot.mtime != mtime || snapshot.size != size) {
+            snapshot = new Snapshot(mtime, size, parse(file));
+            mSnapshots[source] = snapshot;
+            mParses++;
+        }
+        return snapshot.props;
+    }
+
+    /**
+     * @return how often a prop file was parsed, for diagnostics
+     */
+    public synchronized int getParseCount() {
+        return mParses;
+    }
+
+    public synchronized void invalidate() {
+        for (int i = 0; i < mSnapshots.length; i++) {
+            mSnapshots[i] = null;
+        }
+    }
+
+    private static String getLive(String key) {
+        try {
+            String value = SystemProperties.get(key);
+            return value.length() == 0 ? null : value;
+        } catch (IllegalArgumentException e) {
+            // key too long
+            Log.e(TAG, "Failed to get prop: " + key);
+            return null;
+        }
+    }
+
+    private static Map<String, String> parse(File file) {
+        HashMap<String, String> props = new HashMap<String, String>();
+        BufferedReader br = null;
+        try {
+            if (file.canRead()) {
+                br = new BufferedReader(new FileReader(file), 8192);
+            } else {
+                // default.prop is not world readable everywhere
+                String content = ShellReadCache.getInstance().readFile(file.getPath(), true);
+                if (content == null) {
+                    return Collections.emptyMap();
+                }
+                br = new BufferedReader(new StringReader(content));
+            }
+            String line;
+            while ((line = br.readLine()) != null) {
+                line = line.trim();
+                if (line.length() == 0 || line.charAt(0) == '#') {
+                    continue;
+                }
+                int eq = line.indexOf('=');
+                if (eq > 0) {
+                    props.put(line.substring(0, eq).trim(), line.substring(eq + 1).trim());
+                }
+            }
+        } catch (IOException e) {
+            Log.d(TAG, "Failed to read " + file);
+        } finally {
+            if (br != null) {
+                try {
+                    br.close();
+                } catch (IOException ignored) {
+                    // failed to close reader
+                }
+            }
+        }
+        return Collections.unmodifiableMap(props);
+    }
+}
@@ -0,0 +1,173 @@
+package com.oct.tentacles.util;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.util.Log;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs root work on dedicated lanes instead of the shared serial AsyncTask
+ * and IntentService queues.
+ *
+ * Each lane has its own bounded set of threads, so something the user is
+ * waiting on ({@link #LANE_INTERACTIVE}) never queues behind a slow bulk
+ * restore ({@link #LANE_BACKGROUND}). Background threads also run at
+ * background priority and are kept off the pooled root shell reserved
+ * for interactive work.
+ */
+public final class RootCommandScheduler {
+    private static final String TAG = "RootCommandScheduler";
+
+    public static final int LANE_INTERACTIVE = 0;
+    public static final int LANE_BACKGROUND = 1;
+
+    private static final int INTERACTIVE_THREADS = 2;
+    private static final int BACKGROUND_THREADS = 1;
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    private static RootCommandScheduler sInstance;
+
+    /**
+     * Receives the outcome of a task on the main thread.
+     */
+    public interface Callback<T> {
+        void onResult(T result);
+
+        /**
+         * @param error what the task threw
+         */
+        void onError(Throwable error);
+    }
+
+    private final ThreadPoolExecutor[] mLanes = new ThreadPoolExecutor[2];
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    private RootCommandScheduler() {
+        mLanes[LANE_INTERACTIVE] = createLane("root-interactive", INTERACTIVE_THREADS,
+                Process.THREAD_PRIORITY_DEFAULT, false);
+        mLanes[LANE_BACKGROUND] = createLane("root-background", BACKGROUND_THREADS,
+                Process.THREAD_PRIORITY_BACKGROUND, true);
+    }
+
+    public static synchronized RootCommandScheduler getInstance() {
+        if (sInstance == null) {
+            sInstance = new RootCommandScheduler();
+        }
+        return sInstance;
+    }
+
+    private static ThreadPoolExecutor createLane(final String name, int threads,
+            final int priority, final boolean background) {
+        ThreadPoolExecutor lane = new ThreadPoolExecutor(threads, threads,
+                KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                new ThreadFactory() {
+                    private final AtomicInteger mCount = new AtomicInteger();
+
+                    @Override
+                    public Thread newThread(final Runnable r) {
+                        return new Thread(new Runnable() {
+                            @Override
+                            public void run() {
+                                Process.setThreadPriority(priority);
+                                if (background) {
+                                    RootShellPool.markBackgroundThread();
+                                }
+                                r.run();
+                            }
+                        }, name + " #" + mCount.incrementAndGet());
+                    }
+                });
+        // idle lanes should not keep threads around
+        lane.allowCoreThreadTimeOut(true);
+        return lane;
+    }
+
+    /**
+     * For AsyncTask.executeOnExecutor() and other Executor based APIs.
+     */
+    public Executor getExecutor(int lane) {
+        return mLanes[lane];
+    }
+
+    /**
+     * @return how many tasks are waiting for a thread in that lane
+     */
+    public int getQueueDepth(int lane) {
+        return mLanes[lane].getQueue().size();
+    }
+
+    public Future<?> submit(int lane, Runnable task) {
+        return mLanes[lane].submit(task);
+    }
+
+    /**
+     * Runs task on a lane and hands its result to callback on the main
+     * thread. The callback is skipped if the future gets cancelled.
+     *
+     * @param callback may be null
+     */
+    public <T> Future<T> submit(int lane, Callable<T> task, final Callback<T> callback) {
+        FutureTask<T> future = new FutureTask<T>(task) {
+            @Override
+            protected void done() {
+                if (callback == null || isCancelled()) {
+                    return;
+                }
+                T result = null;
+                Throwable error = null;
+                try {
+                    result = get();
+                } catch (ExecutionException e) {
+                    error = e.getCause();
+                } catch (CancellationException e) {
+                    return;
+                } catch (InterruptedException e) {
+                    // done() means get() won't block
+                    error = e;
+                }
+                deliver(callback, result, error);
+            }
+        };
+        mLanes[lane].execute(future);
+        return future;
+    }
+
+    /**
+     * Runs a single command on the pooled root shell.
+     */
+    public Future<CMDProcessor.CommandResult> submitCommand(int lane, final String command,
+            Callback<CMDProcessor.CommandResult> callback) {
+        return submit(lane, new Callable<CMDProcessor.CommandResult>() {
+            @Override
+            public CMDProcessor.CommandResult call() {
+                return new CMDProcessor().pool.runWaitFor(command);
+            }
+        }, callback);
+    }
+
+    private <T> void deliver(final Callback<T> callback, final T result, final Throwable error) {
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (error != null) {
+                    Log.e(TAG, "Root task failed", error);
+                    callback.onError(error);
+                } else {
+                    callback.onResult(result);
+                }
+            }
+        });
+    }
+}
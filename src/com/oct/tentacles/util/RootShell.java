@@ -0,0 +1,231 @@
+package com.oct.tentacles.util;
+
+import android.os.CancellationSignal;
+import android.util.Log;
+
+import java.io.BufferedReader;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A single long lived su process.
+ *
+ * Commands are written to the shell's stdin one at a time, and their output
+ * is framed with a per shell sentinel so we know where stdout and stderr of
+ * each command end and what it exited with. This avoids paying the su
+ * authorization handshake for every command.
+ *
+ * Instances are not thread safe, use {@link RootShellPool} to share them.
+ */
+public class RootShell {
+    private static final String TAG = "RootShell";
+    private static final boolean DEBUG = false;
+
+    private static final long HANDSHAKE_TIMEOUT_MS = 30000;
+
+    private static final AtomicInteger sShellCount = new AtomicInteger();
+    // handed to a waiting caller when the stderr pipe closes
+    private static final String STDERR_EOF = new String("\0eof");
+
+    public static class Output {
+        public final int exitValue;
+        public final String stdout;
+        public final String stderr;
+
+        Output(int exitValue, String stdout, String stderr) {
+            this.exitValue = exitValue;
+            this.stdout = stdout;
+            this.stderr = stderr;
+        }
+
+        public boolean success() {
+            return exitValue == 0;
+        }
+    }
+
+    private final String mMarker;
+    private final Process mProcess;
+    private final DataOutputStream mStdin;
+    private final BufferedReader mStdout;
+    private final BufferedReader mStderr;
+    private final LinkedBlockingQueue<String> mStderrBlocks = new LinkedBlockingQueue<String>();
+    private final Thread mStderrReader;
+    private volatile boolean mAlive;
+    private int mSequence;
+
+    private RootShell(Process process) {
+        mProcess = process;
+        mMarker = "__tentacles_" + sShellCount.incrementAndGet() + "_"
+                + Long.toHexString(System.nanoTime()) + "__";
+        mStdin = new DataOutputStream(process.getOutputStream());
+        mStdout = new BufferedReader(new InputStreamReader(process.getInputStream()), 4096);
+        mStderr = new BufferedReader(new InputStreamReader(process.getErrorStream()), 4096);
+        mAlive = true;
+        mStderrReader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                drainStderr();
+            }
+        }, TAG + "-stderr");
+        mStderrReader.setDaemon(true);
+        mStderrReader.start();
+    }
+
+    /**
+     * Starts a new shell and makes sure it actually has root.
+     *
+     * @return the shell or null if su could not be started or was denied
+     */
+    public static RootShell open(String shell) {
+        Process process;
+        try {
+            process = Runtime.getRuntime().exec(shell);
+        } catch (IOException e) {
+            Log.e(TAG, "Unable to start " + shell, e);
+            return null;
+        }
+        RootShell rootShell = new RootShell(process);
+        // don't let an unanswered su prompt pin the caller forever
+        Output handshake = rootShell.exec("id -u", HANDSHAKE_TIMEOUT_MS, null);
+        if (handshake == null || !handshake.success()
+                || handshake.stdout == null || !handshake.stdout.trim().equals("0")) {
+            Log.w(TAG, "Shell did not come up as root, closing it");
+            rootShell.close();
+            return null;
+        }
+        return rootShell;
+    }
+
+    public boolean isAlive() {
+        return mAlive;
+    }
+
+    /**
+     * Runs a command on this shell and waits for it to finish.
+     *
+     * The command is handed to its own sh -c with stdin from /dev/null, so
+     * a stray exit, cd or read can not break the session, and neither can
+     * an unbalanced quote or heredoc, which only fails that sh.
+     *
+     * @return the framed output or null if the shell died
+     */
+    public Output exec(String command) {
+        return exec(command, ProcessWatchdog.NO_TIMEOUT, null);
+    }
+
+    /**
+     * Like {@link #exec(String)}, but if the command overruns timeoutMs or
+     * signal gets cancelled the whole shell is killed, since there is no
+     * way to get it back in sync, and an output with an exit value of
+     * {@link ProcessWatchdog#EXIT_TIMED_OUT} or
+     * {@link ProcessWatchdog#EXIT_CANCELLED} is returned.
+     */
+    public Output exec(String command, long timeoutMs, CancellationSignal signal) {
+        if (!mAlive) {
+            return null;
+        }
+        final String tag = mMarker + (++mSequence);
+        final ProcessWatchdog.Guard guard = ProcessWatchdog.watch(mProcess, timeoutMs, signal);
+        StringBuilder stdout = null;
+        try {
+            mStdin.writeBytes("sh -c " + quote(command) + " </dev/null\n"
+                    + "echo \"" + tag + " $?\"\n"
+                    + "echo \"" + tag + "\" >&2\n");
+            mStdin.flush();
+
+            Integer exitValue = null;
+            String line;
+            while ((line = mStdout.readLine()) != null) {
+                int idx = line.indexOf(tag);
+                if (idx >= 0) {
+                    // output without a trailing newline ends up on our line
+                    if (idx > 0) {
+                        stdout = appendLine(stdout, line.substring(0, idx));
+                    }
+                    exitValue = parseExit(line.substring(idx + tag.length()));
+                    break;
+                }
+                stdout = appendLine(stdout, line);
+            }
+            if (exitValue != null) {
+                String stderr = mStderrBlocks.take();
+                if (stderr != STDERR_EOF) {
+                    guard.release();
+                    if (DEBUG) Log.d(TAG, "exec( " + command + " ) = " + exitValue);
+                    return new Output(exitValue, stdout == null ? null : stdout.toString(),
+                            stderr.length() == 0 ? null : stderr);
+                }
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Shell pipe broke while running: '" + command + "'", e);
+        } catch (InterruptedException e) {
+            Log.e(TAG, "Interrupted while running: '" + command + "'");
+            // the shell is out of sync with us now, drop it
+            guard.cancel();
+            Thread.currentThread().interrupt();
+        }
+        guard.release();
+        close();
+        if (guard.fired()) {
+            return new Output(guard.getReason(), stdout == null ? null : stdout.toString(), null);
+        }
+        return null;
+    }
+
+    public void close() {
+        mAlive = false;
+        try {
+            mStdin.writeBytes("exit\n");
+            mStdin.flush();
+        } catch (IOException ignored) {
+            // already gone
+        }
+        mProcess.destroy();
+    }
+
+    private void drainStderr() {
+        StringBuilder block = null;
+        try {
+            String line;
+            while ((line = mStderr.readLine()) != null) {
+                int idx = line.indexOf(mMarker);
+                if (idx >= 0) {
+                    if (idx > 0) {
+                        block = appendLine(block, line.substring(0, idx));
+                    }
+                    mStderrBlocks.offer(block == null ? "" : block.toString());
+                    block = null;
+                } else {
+                    block = appendLine(block, line);
+                }
+            }
+        } catch (IOException ignored) {
+            // shell died
+        }
+        mAlive = false;
+        mStderrBlocks.offer(STDERR_EOF);
+    }
+
+    // single quotes keep everything literal, so only they need escaping
+    static String quote(String s) {
+        return "'" + s.replace("'", "'\\''") + "'";
+    }
+
+    private static StringBuilder appendLine(StringBuilder sb, String line) {
+        if (sb == null) {
+            return new StringBuilder(line);
+        }
+        return sb.append('\n').append(line);
+    }
+
+    private static Integer parseExit(String s) {
+        try {
+            return Integer.parseInt(s.trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,237 @@
+package com.oct.tentacles.util;
+
+import android.os.CancellationSignal;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A bounded pool of warm {@link RootShell}s shared by the whole process.
+ *
+ * Shells are opened lazily, handed out to one caller at a time and put back
+ * when the command finishes. Dead shells are dropped and transparently
+ * replaced on the next request.
+ *
+ * Threads marked with {@link #markBackgroundThread()} share all but one
+ * shell between them, so a long background batch never leaves interactive
+ * commands without a shell.
+ */
+public final class RootShellPool {
+    private static final String TAG = "RootShellPool";
+
+    public static final int DEFAULT_MAX_SHELLS = 2;
+    private static final long WAIT_SLICE_MS = 250;
+    // a command that hangs takes its shell down with it after this long
+    public static final long DEFAULT_TIMEOUT_MS = 60000;
+
+    private static RootShellPool sInstance;
+
+    private static final ThreadLocal<Boolean> sBackgroundThread = new ThreadLocal<Boolean>() {
+        @Override
+        protected Boolean initialValue() {
+            return false;
+        }
+    };
+
+    private final LinkedBlockingQueue<RootShell> mIdle = new LinkedBlockingQueue<RootShell>();
+    private final String mShell;
+    private int mMaxShells = DEFAULT_MAX_SHELLS;
+    private int mOpenShells;
+    // shells held by background threads, guarded by this
+    private int mBackgroundShells;
+
+    private RootShellPool(String shell) {
+        mShell = shell;
+    }
+
+    public static synchronized RootShellPool getInstance() {
+        if (sInstance == null) {
+            sInstance = new RootShellPool("su");
+        }
+        return sInstance;
+    }
+
+    /**
+     * Caps the number of su processes kept around. Shells above a lowered cap
+     * are closed as they are returned.
+     */
+    public synchronized void setMaxShells(int maxShells) {
+        if (maxShells < 1) {
+            throw new IllegalArgumentException("maxShells must be at least 1");
+        }
+        mMaxShells = maxShells;
+    }
+
+    /**
+     * Runs a command on a pooled shell, retrying once on a fresh shell if the
+     * one we got had died in the meantime.
+     *
+     * @return the output or null if no root shell could be opened. A command
+     *         that was cancelled or interrupted gets an output with an exit
+     *         value of {@link ProcessWatchdog#EXIT_CANCELLED} instead, so it
+     *         is never run a second time elsewhere.
+     */
+    public RootShell.Output exec(String command) {
+        return exec(command, DEFAULT_TIMEOUT_MS, null);
+    }
+
+    /**
+     * A timeout of {@link ProcessWatchdog#NO_TIMEOUT} gets
+     * {@link #DEFAULT_TIMEOUT_MS}, a wedged command must not hold on to a
+     * pooled shell forever.
+     *
+     * @see RootShell#exec(String, long, CancellationSignal)
+     */
+    public RootShell.Output exec(String command, long timeoutMs, CancellationSignal signal) {
+        if (timeoutMs == ProcessWatchdog.NO_TIMEOUT) {
+            timeoutMs = DEFAULT_TIMEOUT_MS;
+        }
+        for (int attempt = 0; attempt < 2; attempt++) {
+            if (isCancelled(signal)) {
+                return cancelled();
+            }
+            RootShell shell = acquire();
+            if (shell == null) {
+                // waiting for a shell got interrupted, that's not a missing shell
+                return isCancelled(signal) ? cancelled() : null;
+            }
+            RootShell.Output out = null;
+            try {
+                out = shell.exec(command, timeoutMs, signal);
+            } finally {
+                release(shell);
+            }
+            if (out != null) {
+                return out;
+            }
+        }
+        // two shells died under this command, don't hand it to yet another one
+        return new RootShell.Output(-1, null, "root shell died while running command");
+    }
+
+    private static boolean isCancelled(CancellationSignal signal) {
+        return Thread.currentThread().isInterrupted()
+                || (signal != null && signal.isCanceled());
+    }
+
+    private static RootShell.Output cancelled() {
+        return new RootShell.Output(ProcessWatchdog.EXIT_CANCELLED, null, null);
+    }
+
+    /**
+     * Keeps the calling thread off the shell reserved for interactive
+     * work. With a cap of one shell there is nothing to reserve.
+     */
+    static void markBackgroundThread() {
+        sBackgroundThread.set(true);
+    }
+
+    /**
+     * Closes every idle shell; busy ones are closed when they are returned.
+     */
+    public void shutdown() {
+        ArrayList<RootShell> idle = new ArrayList<RootShell>();
+        mIdle.drainTo(idle);
+        synchronized (this) {
+            mOpenShells -= idle.size();
+        }
+        for (RootShell shell : idle) {
+            shell.close();
+        }
+    }
+
+    RootShell acquire() {
+        boolean background = sBackgroundThread.get();
+        if (background && !reserveBackgroundShell()) {
+            return null;
+        }
+        RootShell shell = acquireShell();
+        if (shell == null && background) {
+            releaseBackgroundShell();
+        }
+        return shell;
+    }
+
+    private synchronized boolean reserveBackgroundShell() {
+        while (mBackgroundShells >= Math.max(1, mMaxShells - 1)) {
+            try {
+                wait(WAIT_SLICE_MS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        mBackgroundShells++;
+        return true;
+    }
+
+    private synchronized void releaseBackgroundShell() {
+        mBackgroundShells--;
+        notifyAll();
+    }
+
+    private RootShell acquireShell() {
+        while (true) {
+            RootShell shell;
+            while ((shell = mIdle.poll()) != null) {
+                if (shell.isAlive()) {
+                    return shell;
+                }
+                forget();
+            }
+
+            boolean mayOpen;
+            synchronized (this) {
+                mayOpen = mOpenShells < mMaxShells;
+                if (mayOpen) {
+                    mOpenShells++;
+                }
+            }
+            if (mayOpen) {
+                shell = RootShell.open(mShell);
+                if (shell == null) {
+                    forget();
+                }
+                return shell;
+            }
+
+            // every shell is busy, wait for one to come back. Poll so we
+            // notice when a busy shell dies and frees up a slot instead.
+            try {
+                shell = mIdle.poll(WAIT_SLICE_MS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return null;
+            }
+            if (shell != null) {
+                if (shell.isAlive()) {
+                    return shell;
+                }
+                forget();
+            }
+        }
+    }
+
+    void release(RootShell shell) {
+        boolean keep;
+        synchronized (this) {
+            keep = shell.isAlive() && mOpenShells <= mMaxShells;
+        }
+        if (keep) {
+            mIdle.offer(shell);
+        } else {
+            Log.d(TAG, "Dropping shell, alive=" + shell.isAlive());
+            shell.close();
+            forget();
+        }
+        if (sBackgroundThread.get()) {
+            releaseBackgroundShell();
+        }
+    }
+
+    private synchronized void forget() {
+        mOpenShells--;
+    }
+}
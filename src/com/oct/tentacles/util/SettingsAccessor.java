@@ -0,0 +1,126 @@
+package com.oct.tentacles.util;
+
+import android.content.ContentResolver;
+import android.provider.Settings;
+import android.util.Log;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.HashMap;
+
+/**
+ * Reads and writes a settings table by name.
+ *
+ * Accessors are resolved once per table and kept. "system" goes straight
+ * to {@link Settings.System}; "aokp" is not in the public SDK, so its
+ * getString/putString are looked up by reflection the first time only.
+ * A table that can't be resolved gets an accessor that reads null and
+ * ignores writes.
+ */
+public abstract class SettingsAccessor {
+    private static final String TAG = "SettingsAccessor";
+
+    public static final String TABLE_SYSTEM = "system";
+    public static final String TABLE_AOKP = "aokp";
+
+    private static final HashMap<String, SettingsAccessor> sAccessors =
+            new HashMap<String, SettingsAccessor>();
+
+    /**
+     * @param table "system" or "aokp", anything else is treated as "aokp"
+     */
+    public static synchronized SettingsAccessor forTable(String table) {
+        String name = TABLE_SYSTEM.equalsIgnoreCase(table) ? TABLE_SYSTEM : TABLE_AOKP;
+        SettingsAccessor accessor = sAccessors.get(name);
+        if (accessor == null) {
+            accessor = TABLE_SYSTEM.equals(name)
+                    ? new SystemAccessor()
+                    : resolve("android.provider.Settings$AOKP");
+            sAccessors.put(name, accessor);
+        }
+        return accessor;
+    }
+
+    public abstract String getString(ContentResolver resolver, String key);
+
+    /**
+     * @return whether the value was written
+     */
+    public abstract boolean putString(ContentResolver resolver, String key, String value);
+
+    private static SettingsAccessor resolve(String className) {
+        try {
+            Class<?> clazz = Class.forName(className);
+            Method get = clazz.getDeclaredMethod("getString",
+                    ContentResolver.class, String.class);
+            Method put = clazz.getDeclaredMethod("putString",
+                    ContentResolver.class, String.class, String.class);
+            get.setAccessible(true);
+            put.setAccessible(true);
+            return new ReflectedAccessor(get, put);
+        } catch (ClassNotFoundException e) {
+            Log.e(TAG, "No settings table " + className, e);
+        } catch (NoSuchMethodException e) {
+            Log.e(TAG, "Settings table " + className + " lacks getString/putString", e);
+        }
+        return new MissingAccessor();
+    }
+
+    private static final class SystemAccessor extends SettingsAccessor {
+        @Override
+        public String getString(ContentResolver resolver, String key) {
+            return Settings.System.getString(resolver, key);
+        }
+
+        @Override
+        public boolean putString(ContentResolver resolver, String key, String value) {
+            return Settings.System.putString(resolver, key, value);
+        }
+    }
+
+    private static final class ReflectedAccessor extends SettingsAccessor {
+        private final Method mGet;
+        private final Method mPut;
+
+        ReflectedAccessor(Method get, Method put) {
+            mGet = get;
+            mPut = put;
+        }
+
+        @Override
+        public String getString(ContentResolver resolver, String key) {
+            try {
+                return (String) mGet.invoke(null, resolver, key);
+            } catch (IllegalAccessException e) {
+                Log.e(TAG, "Failed to read " + key, e);
+            } catch (InvocationTargetException e) {
+                Log.e(TAG, "Failed to read " + key, e.getCause());
+            }
+            return null;
+        }
+
+        @Override
+        public boolean putString(ContentResolver resolver, String key, String value) {
+            try {
+                return (Boolean) mPut.invoke(null, resolver, key, value);
+            } catch (IllegalAccessException e) {
+                Log.e(TAG, "Failed to write " + key, e);
+            } catch (InvocationTargetException e) {
+                Log.e(TAG, "Failed to write " + key, e.getCause());
+            }
+            return false;
+        }
+    }
+
+    private static final class MissingAccessor extends SettingsAccessor {
+        @Override
+        public String getString(ContentResolver resolver, String key) {
+            return null;
+        }
+
+        @Override
+        public boolean putString(ContentResolver resolver, String key, String value) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,222 @@
+package com.oct.tentacles.util;
+
+import android.content.ContentResolver;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.AsyncTask;
+import android.provider.Settings;
+import android.util.Log;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * In-memory copy of a set of keys of one settings table.
+ *
+ * A screen lists the keys it reads up front; {@link #prefetch()} then
+ * fetches all of them with a single provider query on a background
+ * thread, so it overlaps with inflating the preferences. Reads wait for
+ * that query once and are served from memory afterwards. One observer on
+ * the table marks keys that change, and only those are read again. Keys
+ * that weren't declared are read from the provider directly.
+ * <p/>
+ * Call {@link #close()} when the screen goes away.
+ */
+public final class SettingsSnapshot {
+    private static final String TAG = "SettingsSnapshot";
+
+    private static final String[] PROJECTION = {
+        Settings.NameValueTable.NAME, Settings.NameValueTable.VALUE
+    };
+
+    private final ContentResolver mResolver;
+    private final int mTable;
+    private final HashSet<String> mKeys = new HashSet<String>();
+    private final HashMap<String, String> mValues = new HashMap<String, String>();
+    private final HashSet<String> mStale = new HashSet<String>();
+    private FutureTask<HashMap<String, String>> mLoad;
+    private volatile boolean mLoaded;
+
+    private final ContentObserver mObserver = new ContentObserver(null) {
+        @Override
+        public void onChange(boolean selfChange) {
+            onChange(selfChange, null);
+        }
+
+        @Override
+        public void onChange(boolean selfChange, Uri uri) {
+            synchronized (SettingsSnapshot.this) {
+                String key = uri != null ? uri.getLastPathSegment() : null;
+                if (key != null && mKeys.contains(key)) {
+                    mStale.add(key);
+                } else if (key == null) {
+                    mStale.addAll(mKeys);
+                }
+            }
+        }
+    };
+
+    /**
+     * @param table {@link SettingsTransaction#SYSTEM}, {@link SettingsTransaction#SECURE}
+     *              or {@link SettingsTransaction#GLOBAL}
+     * @param keys  everything the screen is going to read
+     */
+    public SettingsSnapshot(ContentResolver resolver, int table, String... keys) {
+        mResolver = resolver;
+        mTable = table;
+        for (String key : keys) {
+            mKeys.add(key);
+        }
+    }
+
+    /**
+     * Starts the query and begins watching the table.
+     */
+    public SettingsSnapshot prefetch() {
+        if (mLoad != null) {
+            return this;
+        }
+        // watch first, a change that races the query is read again
+        mResolver.registerContentObserver(SettingsTransaction.uriFor(mTable), true, mObserver);
+        final String[] keys = mKeys.toArray(new String[mKeys.size()]);
+        mLoad = new FutureTask<HashMap<String, String>>(new Callable<HashMap<String, String>>() {
+            @Override
+            public HashMap<String, String> call() {
+                return query(keys);
+            }
+        });
+        AsyncTask.THREAD_POOL_EXECUTOR.execute(mLoad);
+        return this;
+    }
+
+    /**
+     * Reads every key again on next use; for callers that just wrote
+     * them and can't wait for the change notification.
+     */
+    public synchronized void invalidate() {
+        mStale.addAll(mKeys);
+    }
+
+    public void close() {
+        if (mLoad != null) {
+            mResolver.unregisterContentObserver(mObserver);
+        }
+    }
+
+    /**
+     * @return the value or null if the key is not set
+     */
+    public String getString(String key) {
+        if (!mKeys.contains(key)) {
+            return readDirect(key);
+        }
+        awaitLoad();
+        synchronized (this) {
+            if (mStale.remove(key)) {
+                mValues.put(key, readDirect(key));
+            }
+            return mValues.get(key);
+        }
+    }
+
+    public int getInt(String key, int def) {
+        String value = getString(key);
+        if (value == null) {
+            return def;
+        }
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            return def;
+        }
+    }
+
+    public long getLong(String key, long def) {
+        String value = getString(key);
+        if (value == null) {
+            return def;
+        }
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            return def;
+        }
+    }
+
+    public float getFloat(String key, float def) {
+        String value = getString(key);
+        if (value == null) {
+            return def;
+        }
+        try {
+            return Float.parseFloat(value);
+        } catch (NumberFormatException e) {
+            return def;
+        }
+    }
+
+    private void awaitLoad() {
+        if (mLoaded) {
+            return;
+        }
+        prefetch();
+        HashMap<String, String> values = null;
+        try {
+            values = mLoad.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            Log.w(TAG, "Prefetch failed", e.getCause());
+        }
+        synchronized (this) {
+            mLoaded = true;
+            if (values != null) {
+                mValues.putAll(values);
+            } else {
+                // nothing fetched, read each key on first use
+                mStale.addAll(mKeys);
+            }
+        }
+    }
+
+    private HashMap<String, String> query(String[] keys) {
+        HashMap<String, String> values = new HashMap<String, String>();
+        if (keys.length == 0) {
+            return values;
+        }
+        StringBuilder where = new StringBuilder(Settings.NameValueTable.NAME).append(" IN (");
+        for (int i = 0; i < keys.length; i++) {
+            where.append(i == 0 ? "?" : ",?");
+        }
+        where.append(')');
+
+        Cursor c = mResolver.query(SettingsTransaction.uriFor(mTable), PROJECTION,
+                where.toString(), keys, null);
+        if (c == null) {
+            throw new IllegalStateException("No cursor for " + SettingsTransaction.uriFor(mTable));
+        }
+        try {
+            while (c.moveToNext()) {
+                values.put(c.getString(0), c.getString(1));
+            }
+        } finally {
+            c.close();
+        }
+        return values;
+    }
+
+    private String readDirect(String key) {
+        switch (mTable) {
+            case SettingsTransaction.SECURE:
+                return Settings.Secure.getString(mResolver, key);
+            case SettingsTransaction.GLOBAL:
+                return Settings.Global.getString(mResolver, key);
+            default:
+                return Settings.System.getString(mResolver, key);
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package com.oct.tentacles.util;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentResolver;
+import android.content.OperationApplicationException;
+import android.net.Uri;
+import android.os.RemoteException;
+import android.provider.Settings;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Collects settings writes and applies them in one go.
+ *
+ * All tables live in the same provider, so {@link #commit()} hands every
+ * staged value to it in a single applyBatch call instead of one binder
+ * round trip per key. Staging the same key twice keeps the last value.
+ * <pre>
+ * new SettingsTransaction(resolver)
+ *         .putInt(SettingsTransaction.SYSTEM, Settings.System.FOO, 0)
+ *         .putFloat(SettingsTransaction.SYSTEM, Settings.System.BAR, 0.3f)
+ *         .commit();
+ * </pre>
+ */
+public final class SettingsTransaction {
+    private static final String TAG = "SettingsTransaction";
+
+    public static final int SYSTEM = 0;
+    public static final int SECURE = 1;
+    public static final int GLOBAL = 2;
+
+    private static final Uri[] TABLE_URIS = {
+        Settings.System.CONTENT_URI,
+        Settings.Secure.CONTENT_URI,
+        Settings.Global.CONTENT_URI
+    };
+
+    private final ContentResolver mResolver;
+    // "table/key" -> value, in staging order
+    private final LinkedHashMap<String, String> mValues = new LinkedHashMap<String, String>();
+
+    public SettingsTransaction(ContentResolver resolver) {
+        mResolver = resolver;
+    }
+
+    public SettingsTransaction putString(int table, String key, String value) {
+        if (table < SYSTEM || table > GLOBAL) {
+            throw new IllegalArgumentException("unknown table " + table);
+        }
+        String name = table + "/" + key;
+        // re-staging moves the key to the end, like a second write would
+        mValues.remove(name);
+        mValues.put(name, value);
+        return this;
+    }
+
+    public SettingsTransaction putInt(int table, String key, int value) {
+        return putString(table, key, Integer.toString(value));
+    }
+
+    public SettingsTransaction putLong(int table, String key, long value) {
+        return putString(table, key, Long.toString(value));
+    }
+
+    public SettingsTransaction putFloat(int table, String key, float value) {
+        return putString(table, key, Float.toString(value));
+    }
+
+    /**
+     * @return the content uri of {@link #SYSTEM}, {@link #SECURE} or {@link #GLOBAL}
+     */
+    static Uri uriFor(int table) {
+        return TABLE_URIS[table];
+    }
+
+    public boolean isEmpty() {
+        return mValues.isEmpty();
+    }
+
+    /**
+     * Writes everything staged and clears the transaction. If the batch
+     * fails the values are written one by one instead.
+     *
+     * @return false if any value could not be written
+     */
+    public boolean commit() {
+        if (mValues.isEmpty()) {
+            return true;
+        }
+        ArrayList<ContentProviderOperation> ops =
+                new ArrayList<ContentProviderOperation>(mValues.size());
+        for (Map.Entry<String, String> entry : mValues.entrySet()) {
+            String name = entry.getKey();
+            int slash = name.indexOf('/');
+            ops.add(ContentProviderOperation
+                    .newInsert(TABLE_URIS[Integer.parseInt(name.substring(0, slash))])
+                    .withValue(Settings.NameValueTable.NAME, name.substring(slash + 1))
+                    .withValue(Settings.NameValueTable.VALUE, entry.getValue())
+                    .build());
+        }
+        try {
+            mResolver.applyBatch(Settings.AUTHORITY, ops);
+            mValues.clear();
+            return true;
+        } catch (RemoteException e) {
+            Log.w(TAG, "Batch of " + ops.size() + " failed, writing one by one", e);
+        } catch (OperationApplicationException e) {
+            Log.w(TAG, "Batch of " + ops.size() + " failed, writing one by one", e);
+        }
+        return commitEach();
+    }
+
+    private boolean commitEach() {
+        boolean ok = true;
+        for (Map.Entry<String, String> entry : mValues.entrySet()) {
+            String name = entry.getKey();
+            int slash = name.indexOf('/');
+            String key = name.substring(slash + 1);
+            switch (Integer.parseInt(name.substring(0, slash))) {
+                case SYSTEM:
+                    ok &= Settings.System.putString(mResolver, key, entry.getValue());
+                    break;
+                case SECURE:
+                    ok &= Settings.Secure.putString(mResolver, key, entry.getValue());
+                    break;
+                default:
+                    ok &= Settings.Global.putString(mResolver, key, entry.getValue());
+                    break;
+            }
+        }
+        mValues.clear();
+        return ok;
+    }
+}
@@ -0,0 +1,260 @@
+package com.oct.tentacles.util;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.HashMap;
+
+/**
+ * Read through cache for idempotent shell reads: getprop lookups and cat of
+ * files we could not read directly.
+ *
+ * Entries live for a per key TTL and are dropped early when we write the
+ * same prop or path ourselves. A whole getprop dump can be pulled in with
+ * a single fork through {@link #prefetchProps()}.
+ *
+ * A read that an invalidation overtook is returned but not cached, it may
+ * be from before the write.
+ */
+public final class ShellReadCache {
+    private static final String TAG = "ShellReadCache";
+    private static final boolean DEBUG = false;
+
+    public static final long DEFAULT_PROP_TTL_MS = 30000;
+    public static final long DEFAULT_FILE_TTL_MS = 1000;
+
+    // cached "this does not exist / could not be read"
+    private static final String MISSING = new String("\0missing");
+
+    private static ShellReadCache sInstance;
+
+    private static class Entry {
+        final String value;
+        final long expires;
+
+        Entry(String value, long expires) {
+            this.value = value;
+            this.expires = expires;
+        }
+    }
+
+    private final HashMap<String, Entry> mProps = new HashMap<String, Entry>();
+    private final HashMap<String, Entry> mFiles = new HashMap<String, Entry>();
+    // bumped by every invalidation
+    private long mVersion;
+    // version at which a key was last invalidated, and everything at once
+    private final HashMap<String, Long> mPropsInvalidated = new HashMap<String, Long>();
+    private final HashMap<String, Long> mFilesInvalidated = new HashMap<String, Long>();
+    private long mAllInvalidated;
+    private final HashMap<String, Long> mTtls = new HashMap<String, Long>();
+    private long mPropTtl = DEFAULT_PROP_TTL_MS;
+    private long mFileTtl = DEFAULT_FILE_TTL_MS;
+    private int mHits;
+    private int mMisses;
+
+    private ShellReadCache() {
+    }
+
+    public static synchronized ShellReadCache getInstance() {
+        if (sInstance == null) {
+            sInstance = new ShellReadCache();
+        }
+        return sInstance;
+    }
+
+    /**
+     * Overrides the TTL of a single prop name or file path, 0 disables
+     * caching for it.
+     */
+    public synchronized void setTtl(String propOrPath, long ttlMs) {
+        mTtls.put(propOrPath, ttlMs);
+    }
+
+    public synchronized void setDefaultTtls(long propTtlMs, long fileTtlMs) {
+        mPropTtl = propTtlMs;
+        mFileTtl = fileTtlMs;
+    }
+
+    /**
+     * @return the prop's value or null if it is unset
+     */
+    public String getProp(String prop) {
+        String value = lookup(mProps, prop);
+        if (value != null) {
+            return value == MISSING ? null : value;
+        }
+        long version = getVersion();
+        CMDProcessor.CommandResult cr = new CMDProcessor().sh.runWaitFor("getprop " + prop);
+        value = cr.success() && cr.stdout != null ? cr.stdout : null;
+        store(mProps, prop, prop, value, false, version);
+        return value;
+    }
+
+    /**
+     * Looks up several props at once. If more than one of them is not
+     * cached, all props are fetched with a single getprop dump.
+     *
+     * @return values in the order of props, null for unset ones
+     */
+    public String[] getProps(String... props) {
+        int misses = 0;
+        synchronized (this) {
+            long now = SystemClock.elapsedRealtime();
+            for (String prop : props) {
+                Entry e = mProps.get(prop);
+                if (e == null || e.expires <= now) {
+                    misses++;
+                }
+            }
+        }
+        if (misses > 1) {
+            prefetchProps();
+        }
+        String[] values = new String[props.length];
+        for (int i = 0; i < props.length; i++) {
+            values[i] = getProp(props[i]);
+        }
+        return values;
+    }
+
+    /**
+     * Reads every prop with one getprop call and caches them all.
+     */
+    public void prefetchProps() {
+        long version = getVersion();
+        CMDProcessor.CommandResult cr = new CMDProcessor().sh.runWaitFor("getprop");
+        if (!cr.success() || cr.stdout == null) {
+            return;
+        }
+        // lines look like "[ro.build.id]: [JSS15J]"
+        HashMap<String, String> parsed = new HashMap<String, String>();
+        for (String line : cr.stdout.split("\n")) {
+            int keyEnd = line.indexOf("]: [");
+            if (!line.startsWith("[") || keyEnd < 0 || !line.endsWith("]")) {
+                continue;
+            }
+            String value = line.substring(keyEnd + 4, line.length() - 1);
+            parsed.put(line.substring(1, keyEnd), value.length() == 0 ? null : value);
+        }
+        synchronized (this) {
+            long now = SystemClock.elapsedRealtime();
+            for (String prop : parsed.keySet()) {
+                long ttl = ttlFor(prop, mPropTtl);
+                if (ttl > 0 && !invalidatedSince(mPropsInvalidated, prop, version)) {
+                    String value = parsed.get(prop);
+                    mProps.put(prop, new Entry(value == null ? MISSING : value, now + ttl));
+                }
+            }
+        }
+        if (DEBUG) Log.d(TAG, "prefetched " + parsed.size() + " props");
+    }
+
+    /**
+     * cat a file through sh or su.
+     *
+     * @return the contents or null if the read failed
+     */
+    public String readFile(String path, boolean useSu) {
+        String key = (useSu ? "su:" : "sh:") + path;
+        String value = lookup(mFiles, key);
+        if (value != null) {
+            return value == MISSING ? null : value;
+        }
+        long version = getVersion();
+        CMDProcessor cmd = new CMDProcessor();
+        CMDProcessor.CommandResult cr = useSu
+                ? cmd.pool.runWaitFor("cat " + path)
+                : cmd.sh.runWaitFor("cat " + path);
+        value = cr.success() ? cr.stdout : null;
+        store(mFiles, key, path, value, true, version);
+        return value;
+    }
+
+    public synchronized void invalidateProp(String prop) {
+        mProps.remove(prop);
+        mPropsInvalidated.put(prop, ++mVersion);
+    }
+
+    public synchronized void invalidateFile(String path) {
+        mFiles.remove("su:" + path);
+        mFiles.remove("sh:" + path);
+        mFilesInvalidated.put(path, ++mVersion);
+    }
+
+    public synchronized void invalidateAll() {
+        mProps.clear();
+        mFiles.clear();
+        // nothing read before this may be stored, the per key marks can go
+        mPropsInvalidated.clear();
+        mFilesInvalidated.clear();
+        mAllInvalidated = ++mVersion;
+    }
+
+    public synchronized int getHitCount() {
+        return mHits;
+    }
+
+    public synchronized int getMissCount() {
+        return mMisses;
+    }
+
+    public synchronized void resetStats() {
+        mHits = 0;
+        mMisses = 0;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return TAG + "{hits=" + mHits + ", misses=" + mMisses
+                + ", props=" + mProps.size() + ", files=" + mFiles.size() + '}';
+    }
+
+    private synchronized String lookup(HashMap<String, Entry> map, String key) {
+        Entry e = map.get(key);
+        if (e != null && e.expires > SystemClock.elapsedRealtime()) {
+            mHits++;
+            return e.value;
+        }
+        if (e != null) {
+            map.remove(key);
+        }
+        mMisses++;
+        return null;
+    }
+
+    private synchronized long getVersion() {
+        return mVersion;
+    }
+
+    // caller holds the lock
+    private boolean invalidatedSince(HashMap<String, Long> invalidated, String key,
+            long version) {
+        if (mAllInvalidated > version) {
+            return true;
+        }
+        Long at = invalidated.get(key);
+        return at != null && at > version;
+    }
+
+    /**
+     * @param version what {@link #getVersion()} said before the read began
+     */
+    private synchronized void store(HashMap<String, Entry> map, String key, String ttlKey,
+            String value, boolean isFile, long version) {
+        if (invalidatedSince(isFile ? mFilesInvalidated : mPropsInvalidated, ttlKey, version)) {
+            if (DEBUG) Log.d(TAG, "not caching " + key + ", invalidated while reading");
+            return;
+        }
+        long ttl = ttlFor(ttlKey, isFile ? mFileTtl : mPropTtl);
+        if (ttl > 0) {
+            map.put(key, new Entry(value == null ? MISSING : value,
+                    SystemClock.elapsedRealtime() + ttl));
+        }
+    }
+
+    // caller holds the lock
+    private long ttlFor(String key, long defaultTtl) {
+        Long ttl = mTtls.get(key);
+        return ttl != null ? ttl : defaultTtl;
+    }
+}
@@ -0,0 +1,155 @@
+package com.oct.tentacles.util;
+
+import android.os.SystemClock;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+/**
+ * A sysfs/procfs node that is read over and over, e.g. a cpu's current
+ * frequency.
+ *
+ * The file stays open between reads and every read starts again at offset
+ * 0 into the same byte buffer, which makes sysfs regenerate the value.
+ * Integers are parsed straight from the bytes, so steady state polling
+ * allocates nothing. Whether the node exists is cached; a missing node (an
+ * offline core loses its cpufreq directory) is only looked for again every
+ * {@link #RECHECK_MS}.
+ *
+ * Not thread safe.
+ */
+public final class SysfsNode {
+    private static final int BUFFER_SIZE = 64;
+    private static final long RECHECK_MS = 2000;
+
+    private final String mPath;
+    private final byte[] mBuffer = new byte[BUFFER_SIZE];
+    private RandomAccessFile mFile;
+    private long mNextCheck;
+
+    public SysfsNode(String path) {
+        mPath = path;
+    }
+
+    public String getPath() {
+        return mPath;
+    }
+
+    /**
+     * @return true if the node could be opened, only touching the file
+     *         system when we don't know yet or the recheck interval passed
+     */
+    public boolean exists() {
+        return open();
+    }
+
+    /**
+     * Reads the leading decimal integer of the node.
+     *
+     * @return the value or def if the node is missing or not a number
+     */
+    public int readInt(int def) {
+        int len = read();
+        if (len <= 0) {
+            return def;
+        }
+        int i = 0;
+        while (i < len && isSpace(mBuffer[i])) {
+            i++;
+        }
+        boolean negative = false;
+        if (i < len && mBuffer[i] == '-') {
+            negative = true;
+            i++;
+        }
+        int start = i;
+        int value = 0;
+        while (i < len && mBuffer[i] >= '0' && mBuffer[i] <= '9') {
+            value = value * 10 + (mBuffer[i] - '0');
+            i++;
+        }
+        if (i == start) {
+            return def;
+        }
+        return negative ? -value : value;
+    }
+
+    /**
+     * Convenience for the odd string value, this one does allocate.
+     *
+     * @return the first line of the node or null if it is missing
+     */
+    public String readLine() {
+        int len = read();
+        if (len < 0) {
+            return null;
+        }
+        int end = 0;
+        while (end < len && mBuffer[end] != '\n') {
+            end++;
+        }
+        return new String(mBuffer, 0, end);
+    }
+
+    public void close() {
+        if (mFile != null) {
+            try {
+                mFile.close();
+            } catch (IOException ignored) {
+                // nothing to do
+            }
+            mFile = null;
+        }
+        mNextCheck = 0;
+    }
+
+    /**
+     * @return bytes read into the buffer or -1 if the node is missing
+     */
+    private int read() {
+        if (!open()) {
+            return -1;
+        }
+        try {
+            mFile.seek(0);
+            int total = 0;
+            int len;
+            while (total < BUFFER_SIZE
+                    && (len = mFile.read(mBuffer, total, BUFFER_SIZE - total)) > 0) {
+                total += len;
+            }
+            return total;
+        } catch (IOException e) {
+            // the node went away under us, look for it again later
+            close();
+            mNextCheck = SystemClock.elapsedRealtime() + RECHECK_MS;
+            return -1;
+        }
+    }
+
+    private boolean open() {
+        if (mFile != null) {
+            return true;
+        }
+        long now = SystemClock.elapsedRealtime();
+        if (now < mNextCheck) {
+            return false;
+        }
+        File file = new File(mPath);
+        if (file.exists()) {
+            try {
+                mFile = new RandomAccessFile(file, "r");
+                return true;
+            } catch (IOException e) {
+                // not readable for us, treat it as missing
+            }
+        }
+        mNextCheck = now + RECHECK_MS;
+        return false;
+    }
+
+    private static boolean isSpace(byte b) {
+        return b == ' ' || b == '\t' || b == '\n' || b == '\r';
+    }
+}
@@ -0,0 +1,138 @@
+package com.oct.tentacles.util;
+
+import android.util.Log;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reference counted rw window on /system.
+ *
+ * Writers take a {@link Scope} for as long as they need /system writable.
+ * Nested or concurrent scopes share one remount; once the last one is
+ * released /system goes back to ro after {@link #GRACE_MS}, so back to back
+ * operations don't flip it every time. The mount state comes from
+ * {@link MountTable}, which follows remounts by anyone, and is checked
+ * whenever the first scope is taken. If /system was already rw then, it
+ * is left that way.
+ *
+ * Acquiring may run root commands, never do it on the UI thread.
+ */
+public final class SystemMount {
+    private static final String TAG = "SystemMount";
+
+    public static final long GRACE_MS = 3000;
+
+    private static SystemMount sInstance;
+
+    private final ScheduledExecutorService mTimer =
+            Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, TAG);
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+
+    private int mRefs;
+    // whether /system is rw because we remounted it, so it is ours to undo
+    private boolean mRemounted;
+    private ScheduledFuture<?> mPendingRo;
+
+    private final Runnable mRemountRo = new Runnable() {
+        @Override
+        public void run() {
+            synchronized (SystemMount.this) {
+                mPendingRo = null;
+                if (mRefs == 0 && mRemounted) {
+                    // if someone else made it ro already there's nothing to undo
+                    if (isRw() && !Helpers.getMount("ro")) {
+                        Log.w(TAG, "Failed to remount /system ro");
+                    }
+                    mRemounted = false;
+                }
+            }
+        }
+    };
+
+    /**
+     * Keeps /system rw until released; release exactly once, in a finally.
+     */
+    public final class Scope {
+        private boolean mReleased;
+        private final boolean mWritable;
+
+        private Scope(boolean writable) {
+            mWritable = writable;
+        }
+
+        /**
+         * @return false if the remount failed
+         */
+        public boolean isWritable() {
+            return mWritable;
+        }
+
+        public void release() {
+            synchronized (SystemMount.this) {
+                if (mReleased) {
+                    return;
+                }
+                mReleased = true;
+                if (--mRefs == 0) {
+                    mPendingRo = mTimer.schedule(mRemountRo, GRACE_MS, TimeUnit.MILLISECONDS);
+                }
+            }
+        }
+    }
+
+    private SystemMount() {
+    }
+
+    public static synchronized SystemMount getInstance() {
+        if (sInstance == null) {
+            sInstance = new SystemMount();
+        }
+        return sInstance;
+    }
+
+    public synchronized Scope acquire() {
+        if (mPendingRo != null) {
+            mPendingRo.cancel(false);
+            mPendingRo = null;
+        }
+        boolean rw = isRw();
+        if (mRefs++ == 0) {
+            if (!rw) {
+                // made ro behind our back, or it never was rw
+                mRemounted = false;
+                rw = Helpers.getMount("rw");
+                if (rw) {
+                    mRemounted = true;
+                } else {
+                    Log.w(TAG, "Failed to remount /system rw");
+                }
+            }
+        }
+        return new Scope(rw);
+    }
+
+    /**
+     * @return the current state from {@link MountTable}
+     */
+    public boolean isRw() {
+        return MountTable.getInstance().isSystemRw();
+    }
+
+    /**
+     * Makes the next check read /proc/mounts again, for remounts the
+     * kernel doesn't report.
+     */
+    public void invalidate() {
+        MountTable.getInstance().invalidate();
+    }
+}